@@ -0,0 +1,364 @@
+/*
+ * Copyright MapNav contributors 2026
+ *
+ *
+    This file is part of Mapper.
+
+    Mapper is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Mapper is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with Mapper.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+
+package com.example.mapnav;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import android.graphics.PointF;
+
+/**
+ * Plans routes over an OccupancyGrid with D* Lite, keeping the search between queries.
+ *
+ * The search runs backwards from the destination, so when the user moves only the start of the
+ * search changes, and the costs already worked out stay valid. When a cell turns out to be blocked,
+ * only the cells whose routes went through it are searched again. Once the first route is found,
+ * following the user as they walk costs a small local update rather than a new search.
+ *
+ * See Koenig and Likhachev, "D* Lite", AAAI 2002; this is the optimized version of the algorithm.
+ */
+public class DStarLitePlanner
+{
+    // How much more, relatively, a straight line may cost than the grid route and still be taken.
+    private static final float TOLERANCE = 1E-4f;
+
+    private final OccupancyGrid grid;
+    // cells found blocked since the destination or origin last changed, on top of the walls of the grid
+    private final boolean[] blocked;
+    private int blockedCount;
+
+    private final float[] g, rhs;
+    private final IndexedMinHeap open;
+    private final int[] next = new int[8];
+    private final float[] step = new float[8];
+    private final int[] around = new int[8];
+
+    private PointF dest;
+    private int destCell = -1, startCell = -1;
+    private float km;
+
+    /**
+     * Creates a planner for a grid. No search is done until a destination is set.
+     * @param grid the rasterized map
+     */
+    public DStarLitePlanner(OccupancyGrid grid)
+    {
+        this.grid = grid;
+        int size = grid.size();
+        blocked = new boolean[size];
+        g = new float[size];
+        rhs = new float[size];
+        open = new IndexedMinHeap(size);
+    }
+
+    /**
+     * Sets the destination, throwing away the search for the previous one and every blocked cell.
+     * @param dest the destination (in meters)
+     */
+    public synchronized void setDestination(PointF dest)
+    {
+        if(blockedCount > 0) {
+            Arrays.fill(blocked, false);
+            blockedCount = 0;
+        }
+        this.dest = new PointF(dest.x, dest.y);
+        destCell = grid.cellAt(dest.x, dest.y);
+        startCell = -1;
+        km = 0;
+
+        Arrays.fill(g, Float.POSITIVE_INFINITY);
+        Arrays.fill(rhs, Float.POSITIVE_INFINITY);
+        open.clear();
+        if(destCell != -1) {
+            rhs[destCell] = 0;
+            open.put(destCell, 0, 0);
+        }
+    }
+
+    /**
+     * Unblocks every cell marked blocked, starting the search again if there were any. 
+     * Blocks only hold until the user starts over, so that bumps into a wall the grid already 
+     * has do not pile up and seal off doorways for the rest of the session.
+     * @return whether any cell was unblocked, so routes may have changed
+     */
+    public synchronized boolean clearBlocked()
+    {
+        if(blockedCount == 0)
+            return false;
+        if(dest != null) {
+            setDestination(dest);
+        } else {
+            Arrays.fill(blocked, false);
+            blockedCount = 0;
+        }
+        return true;
+    }
+
+    /**
+     * Marks where a step ran into a wall as blocked: the last cell before the wall along the step 
+     * that is not a wall cell, or if there is none, the cell the step was heading for. 
+     * The point where the step met the wall is no use itself, as its cell is always a wall cell.
+     * @param from where the step started (in meters)
+     * @param to where the step would have ended (in meters)
+     * @param wall where the step met the wall (in meters)
+     * @return whether a cell was newly blocked, so routes may have changed
+     */
+    public synchronized boolean setBlocked(PointF from, PointF to, PointF wall)
+    {
+        // back from the wall towards the start, half a cell at a time
+        float length = VectorUtils.distance(from, wall);
+        float stride = grid.getCellSize() / 2;
+        for(float d = 0; d <= length; d += stride){
+            float t = length == 0 ? 0 : d / length;
+            int cell = grid.cellAt(wall.x + t * (from.x - wall.x), wall.y + t * (from.y - wall.y));
+            if(cell != -1 && !grid.isWall(cell))
+                return block(cell);
+        }
+        return block(grid.cellAt(to.x, to.y));
+    }
+
+    private boolean block(int cell)
+    {
+        if(cell == -1 || cell == destCell || blocked[cell] || grid.isWall(cell))
+            return false;
+        blocked[cell] = true;
+        blockedCount++;
+        if(destCell == -1)
+            return true;
+
+        // the cell itself, and every cell with a step through it or past its corners
+        updateVertex(cell);
+        int col = grid.column(cell), row = grid.row(cell);
+        for(int r = -1; r <= 1; r++){
+            for(int c = -1; c <= 1; c++){
+                int n = grid.cell(col + c, row + r);
+                if(n != -1 && n != cell)
+                    updateVertex(n);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Finds the shortest route from a point to the destination, reusing the previous search.
+     * @param origin where the user is (in meters)
+     * @return The points along the route, starting with origin and ending with the destination,
+     * or null if there is no route or no destination. The list can be passed straight to MapView.setUserPath.
+     */
+    public synchronized List<PointF> plan(PointF origin)
+    {
+        if(destCell == -1)
+            return null;
+        int start = findStart(origin);
+        if(start == -1)
+            return null;
+
+        if(startCell != -1)
+            km += heuristic(startCell, start);
+        startCell = start;
+        computeShortestPath();
+        if(Float.isInfinite(g[start]))
+            return null;
+
+        // Follow the cheapest steps to the destination, keeping only the cells where the route
+        // has to bend: a cell is skipped when the straight line past it costs no more.
+        List<PointF> ret = new ArrayList<PointF>();
+        ret.add(new PointF(origin.x, origin.y));
+        int anchor = start, previous = start, cell = start;
+        float sinceAnchor = 0;
+        while(cell != destCell) {
+            int best = -1;
+            float bestCost = Float.POSITIVE_INFINITY, bestStep = 0;
+            if(grid.isWall(destCell) && isNeighbour(cell, destCell)) {
+                // a destination close to a wall is in a wall cell, which neighbours() never steps into
+                best = destCell;
+                bestStep = VectorUtils.distance(grid.centerX(cell), grid.centerY(cell),
+                        grid.centerX(destCell), grid.centerY(destCell)) *
+                        (grid.costFactor(cell) + grid.costFactor(destCell)) / 2;
+            } else {
+                int count = neighbours(cell);
+                for(int k = 0; k < count; k++){
+                    float c = step[k] + g[next[k]];
+                    if(c < bestCost) {
+                        bestCost = c;
+                        best = next[k];
+                        bestStep = step[k];
+                    }
+                }
+            }
+            // every step must get closer, or the walk would never end
+            if(best == -1 || !(g[best] < g[cell]))
+                return null;
+
+            previous = cell;
+            cell = best;
+            sinceAnchor += bestStep;
+            if(grid.lineCost(anchor, cell) > sinceAnchor * (1 + TOLERANCE)) {
+                ret.add(new PointF(grid.centerX(previous), grid.centerY(previous)));
+                sinceAnchor = grid.lineCost(previous, cell);
+                anchor = previous;
+            }
+        }
+        ret.add(new PointF(dest.x, dest.y));
+        return ret;
+    }
+
+    private boolean isNeighbour(int a, int b)
+    {
+        return a != b && Math.abs(grid.column(a) - grid.column(b)) <= 1 && Math.abs(grid.row(a) - grid.row(b)) <= 1;
+    }
+
+    private void computeShortestPath()
+    {
+        int start = startCell;
+        while(!open.isEmpty() && (lessThanKey(open.peekKey1(), open.peekKey2(), start) || rhs[start] != g[start])) {
+            int u = open.peek();
+            float oldKey1 = open.peekKey1(), oldKey2 = open.peekKey2();
+            float newKey2 = Math.min(g[u], rhs[u]);
+            float newKey1 = newKey2 + heuristic(start, u) + km;
+
+            if(oldKey1 < newKey1 || oldKey1 == newKey1 && oldKey2 < newKey2) {
+                open.put(u, newKey1, newKey2);
+            } else if(g[u] > rhs[u]) {
+                g[u] = rhs[u];
+                open.remove(u);
+                int count = neighbours(u);
+                for(int k = 0; k < count; k++)
+                    updateRhs(next[k], u, step[k]);
+            } else {
+                g[u] = Float.POSITIVE_INFINITY;
+                updateVertex(u);
+                // updateVertex overwrites next
+                int count = neighbours(u);
+                System.arraycopy(next, 0, around, 0, count);
+                for(int k = 0; k < count; k++)
+                    updateVertex(around[k]);
+            }
+        }
+    }
+
+    /** A cell's route just got cheaper through one of its neighbours. */
+    private void updateRhs(int cell, int through, float cost)
+    {
+        if(cell == destCell)
+            return;
+        float c = cost + g[through];
+        if(c < rhs[cell]) {
+            rhs[cell] = c;
+            queue(cell);
+        }
+    }
+
+    /** Recalculates a cell's cost from all of its neighbours. */
+    private void updateVertex(int cell)
+    {
+        if(cell != destCell) {
+            float best = Float.POSITIVE_INFINITY;
+            if(!blocked[cell]) {
+                int count = neighbours(cell);
+                for(int k = 0; k < count; k++)
+                    best = Math.min(best, step[k] + g[next[k]]);
+            }
+            rhs[cell] = best;
+        }
+        queue(cell);
+    }
+
+    private void queue(int cell)
+    {
+        if(g[cell] != rhs[cell]) {
+            float key2 = Math.min(g[cell], rhs[cell]);
+            open.put(cell, key2 + heuristic(startCell, cell) + km, key2);
+        } else {
+            open.remove(cell);
+        }
+    }
+
+    private boolean lessThanKey(float key1, float key2, int cell)
+    {
+        float cellKey2 = Math.min(g[cell], rhs[cell]);
+        float cellKey1 = cellKey2 + heuristic(startCell, cell) + km;
+        return key1 < cellKey1 || key1 == cellKey1 && key2 < cellKey2;
+    }
+
+    /**
+     * The shortest possible walk between two cells, ignoring walls: the octile distance.
+     * Never more than the real cost, since no cell costs less than a free one.
+     */
+    private float heuristic(int a, int b)
+    {
+        int dx = Math.abs(grid.column(a) - grid.column(b)), dy = Math.abs(grid.row(a) - grid.row(b));
+        return grid.getCellSize() * (Math.max(dx, dy) + ((float) Math.sqrt(2) - 1) * Math.min(dx, dy));
+    }
+
+    /**
+     * OccupancyGrid.neighbours, leaving out the cells found blocked and the diagonal steps past their corners.
+     * The results are left in next and step.
+     */
+    private int neighbours(int cell)
+    {
+        int count = grid.neighbours(cell, next, step);
+        int col = grid.column(cell), row = grid.row(cell);
+        int kept = 0;
+        for(int k = 0; k < count; k++){
+            int n = next[k];
+            int nCol = grid.column(n), nRow = grid.row(n);
+            if(blocked[n] || nCol != col && nRow != row && (blocked[grid.cell(nCol, row)] || blocked[grid.cell(col, nRow)]))
+                continue;
+            next[kept] = n;
+            step[kept++] = step[k];
+        }
+        return kept;
+    }
+
+    /**
+     * The cell a route from point starts in: the closest cell within the clearance that is not a wall.
+     * @return the cell, or -1 if there is none or point is off the grid
+     */
+    private int findStart(PointF point)
+    {
+        int cell = grid.cellAt(point.x, point.y);
+        if(cell == -1 || !grid.isWall(cell) && !blocked[cell])
+            return cell;
+
+        int col = grid.column(cell), row = grid.row(cell);
+        int reach = (int) Math.ceil(grid.getClearance() / grid.getCellSize()) + 1;
+        int best = -1;
+        float bestDistance = Float.POSITIVE_INFINITY;
+        for(int r = -reach; r <= reach; r++){
+            for(int c = -reach; c <= reach; c++){
+                int n = grid.cell(col + c, row + r);
+                if(n == -1 || grid.isWall(n) || blocked[n])
+                    continue;
+                float distance = VectorUtils.distance(point.x, point.y, grid.centerX(n), grid.centerY(n));
+                if(distance < bestDistance) {
+                    bestDistance = distance;
+                    best = n;
+                }
+            }
+        }
+        return best;
+    }
+}
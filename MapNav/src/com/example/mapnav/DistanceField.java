@@ -0,0 +1,223 @@
+/*
+ * Copyright MapNav contributors 2026
+ *
+ *
+    This file is part of Mapper.
+
+    Mapper is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Mapper is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with Mapper.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+
+package com.example.mapnav;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import android.graphics.PointF;
+
+/**
+ * The routes from every cell of an OccupancyGrid to one destination, worked out at once.
+ *
+ * The field is built with a single Dijkstra search outwards from the destination. Each cell then
+ * keeps its next waypoint and the walking distance left from there, so that guidance for a user
+ * anywhere on the map is a lookup rather than a search.
+ *
+ * Waypoints are found the way Theta* finds them: a cell heads straight for its parent's waypoint
+ * instead of its parent whenever the straight line costs no more, so routes are not bent to
+ * the 45 degree steps of the grid.
+ */
+public class DistanceField
+{
+    // How much more, relatively, a straight line may cost than the grid route and still be taken.
+    private static final float TOLERANCE = 1E-4f;
+
+    private final OccupancyGrid grid;
+    private final PointF dest;
+    private final int destCell;
+
+    // the cell to head for from each cell, or -1 for cells the destination can not be reached from
+    private final int[] waypoint;
+    // the walking distance from the center of each cell to the destination, following the waypoints
+    private final float[] remaining;
+
+    /**
+     * Builds the field for one destination.
+     * @param grid the rasterized map
+     * @param dest the destination (in meters)
+     */
+    public DistanceField(OccupancyGrid grid, PointF dest)
+    {
+        this.grid = grid;
+        this.dest = new PointF(dest.x, dest.y);
+        destCell = grid.cellAt(dest.x, dest.y);
+
+        int size = grid.size();
+        waypoint = new int[size];
+        remaining = new float[size];
+        Arrays.fill(waypoint, -1);
+        if(destCell == -1)
+            return;
+
+        // Dijkstra from the destination, remembering the order cells are finished in
+        float[] cost = new float[size];
+        int[] parent = new int[size];
+        int[] order = new int[size];
+        int finished = 0;
+        Arrays.fill(cost, Float.POSITIVE_INFINITY);
+        int[] next = new int[8];
+        float[] step = new float[8];
+        IndexedMinHeap open = new IndexedMinHeap(size);
+
+        cost[destCell] = 0;
+        parent[destCell] = destCell;
+        open.put(destCell, 0, 0);
+        while(!open.isEmpty()) {
+            int u = open.poll();
+            order[finished++] = u;
+            int count = grid.neighbours(u, next, step);
+            for(int k = 0; k < count; k++){
+                int v = next[k];
+                float c = cost[u] + step[k];
+                if(c < cost[v]) {
+                    cost[v] = c;
+                    parent[v] = u;
+                    open.put(v, c, 0);
+                }
+            }
+        }
+
+        // Every cell is finished after its parent, so its parent's waypoint is already known.
+        waypoint[destCell] = destCell;
+        remaining[destCell] = 0;
+        for(int k = 1; k < finished; k++){
+            int u = order[k], p = parent[u], w = waypoint[p];
+            float viaParent = cost[p] + grid.lineCost(u, p);
+            float direct = w == p ? viaParent : cost[w] + grid.lineCost(u, w);
+            // allow for rounding, or a straight run along the grid is split at every cell
+            int target = direct <= viaParent * (1 + TOLERANCE) ? w : p;
+
+            cost[u] = Math.min(direct, viaParent);
+            waypoint[u] = target;
+            remaining[u] = VectorUtils.distance(grid.centerX(u), grid.centerY(u), pointX(target), pointY(target))
+                    + remaining[target];
+        }
+    }
+
+    /** Returns the destination this field leads to. */
+    public PointF getDestination()
+    {
+        return new PointF(dest.x, dest.y);
+    }
+
+    /**
+     * Whether the destination can be reached from a point.
+     */
+    public boolean isReachable(PointF point)
+    {
+        return startCell(point) != -1;
+    }
+
+    /**
+     * Finds the point to walk towards next.
+     * @param point where the user is (in meters)
+     * @return the next waypoint, or null if the destination can not be reached from point
+     */
+    public PointF getNextWaypoint(PointF point)
+    {
+        int cell = startCell(point);
+        if(cell == -1)
+            return null;
+        int target = waypoint[cell];
+        return new PointF(pointX(target), pointY(target));
+    }
+
+    /**
+     * Finds how far is left to walk.
+     * @param point where the user is (in meters)
+     * @return the walking distance to the destination, or infinity if it can not be reached from point
+     */
+    public float getRemainingDistance(PointF point)
+    {
+        int cell = startCell(point);
+        if(cell == -1)
+            return Float.POSITIVE_INFINITY;
+        int target = waypoint[cell];
+        return VectorUtils.distance(point.x, point.y, pointX(target), pointY(target)) + remaining[target];
+    }
+
+    /**
+     * Lists the waypoints from a point to the destination.
+     * @param point where the user is (in meters)
+     * @return The points along the route, starting with point and ending with the destination,
+     * or null if there is no route. The list can be passed straight to MapView.setUserPath.
+     */
+    public List<PointF> getRoute(PointF point)
+    {
+        int cell = startCell(point);
+        if(cell == -1)
+            return null;
+
+        List<PointF> ret = new ArrayList<PointF>();
+        ret.add(new PointF(point.x, point.y));
+        while(cell != destCell) {
+            cell = waypoint[cell];
+            ret.add(new PointF(pointX(cell), pointY(cell)));
+        }
+        return ret;
+    }
+
+    /**
+     * The cell a route from point starts in. If point is in a wall cell, or a cell the destination
+     * can not be reached from, the closest reachable cell within the clearance is used instead.
+     * @return the cell, or -1 if there is none or point is off the grid
+     */
+    private int startCell(PointF point)
+    {
+        int cell = grid.cellAt(point.x, point.y);
+        if(cell == -1 || waypoint[cell] != -1)
+            return cell;
+
+        int col = grid.column(cell), row = grid.row(cell);
+        int reach = (int) Math.ceil(grid.getClearance() / grid.getCellSize()) + 1;
+        int best = -1;
+        float bestDistance = Float.POSITIVE_INFINITY;
+        for(int r = -reach; r <= reach; r++){
+            for(int c = -reach; c <= reach; c++){
+                int n = grid.cell(col + c, row + r);
+                if(n == -1 || waypoint[n] == -1)
+                    continue;
+                float distance = VectorUtils.distance(point.x, point.y, grid.centerX(n), grid.centerY(n));
+                if(distance < bestDistance) {
+                    bestDistance = distance;
+                    best = n;
+                }
+            }
+        }
+        return best;
+    }
+
+    // the destination cell stands for the destination itself
+    private float pointX(int cell)
+    {
+        return cell == destCell ? dest.x : grid.centerX(cell);
+    }
+
+    private float pointY(int cell)
+    {
+        return cell == destCell ? dest.y : grid.centerY(cell);
+    }
+}
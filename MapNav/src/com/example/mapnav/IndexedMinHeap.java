@@ -0,0 +1,167 @@
+/*
+ * Copyright MapNav contributors 2026
+ *
+ *
+    This file is part of Mapper.
+
+    Mapper is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Mapper is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with Mapper.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+package com.example.mapnav;
+
+import java.util.Arrays;
+
+/**
+ * A binary min-heap of the ids 0 .. capacity-1, ordered by a pair of float keys (compared
+ * first by key1, then by key2). The key of an id already in the heap can be changed in place.
+ *
+ * Used by the path planners; nothing is allocated after construction.
+ */
+class IndexedMinHeap
+{
+    private final int[] heap;
+    // position of each id in heap, or -1 when it is not in the heap
+    private final int[] position;
+    private final float[] key1, key2;
+    private int size;
+
+    IndexedMinHeap(int capacity)
+    {
+        heap = new int[capacity];
+        position = new int[capacity];
+        key1 = new float[capacity];
+        key2 = new float[capacity];
+        Arrays.fill(position, -1);
+    }
+
+    int size()
+    {
+        return size;
+    }
+
+    boolean isEmpty()
+    {
+        return size == 0;
+    }
+
+    boolean contains(int id)
+    {
+        return position[id] != -1;
+    }
+
+    /** Removes every id from the heap. */
+    void clear()
+    {
+        for(int i = 0; i < size; i++)
+            position[heap[i]] = -1;
+        size = 0;
+    }
+
+    /**
+     * Adds id with the given keys, or changes its keys if it is already in the heap.
+     */
+    void put(int id, float k1, float k2)
+    {
+        int i = position[id];
+        if(i == -1) {
+            i = size++;
+            heap[i] = id;
+            position[id] = i;
+        }
+        key1[id] = k1;
+        key2[id] = k2;
+        siftDown(siftUp(i));
+    }
+
+    /** Removes id from the heap, if it is there. */
+    void remove(int id)
+    {
+        int i = position[id];
+        if(i == -1)
+            return;
+        position[id] = -1;
+        int last = heap[--size];
+        if(i < size) {
+            heap[i] = last;
+            position[last] = i;
+            siftDown(siftUp(i));
+        }
+    }
+
+    /** The id with the smallest keys. The heap must not be empty. */
+    int peek()
+    {
+        return heap[0];
+    }
+
+    float peekKey1()
+    {
+        return key1[heap[0]];
+    }
+
+    float peekKey2()
+    {
+        return key2[heap[0]];
+    }
+
+    /** Removes and returns the id with the smallest keys. The heap must not be empty. */
+    int poll()
+    {
+        int top = heap[0];
+        remove(top);
+        return top;
+    }
+
+    private boolean less(int a, int b)
+    {
+        return key1[a] < key1[b] || key1[a] == key1[b] && key2[a] < key2[b];
+    }
+
+    private int siftUp(int i)
+    {
+        int id = heap[i];
+        while(i > 0) {
+            int parent = (i - 1) / 2;
+            if(!less(id, heap[parent]))
+                break;
+            heap[i] = heap[parent];
+            position[heap[i]] = i;
+            i = parent;
+        }
+        heap[i] = id;
+        position[id] = i;
+        return i;
+    }
+
+    private void siftDown(int i)
+    {
+        int id = heap[i];
+        while(true) {
+            int child = 2 * i + 1;
+            if(child >= size)
+                break;
+            if(child + 1 < size && less(heap[child + 1], heap[child]))
+                child++;
+            if(!less(heap[child], id))
+                break;
+            heap[i] = heap[child];
+            position[heap[i]] = i;
+            i = child;
+        }
+        heap[i] = id;
+        position[id] = i;
+    }
+}
@@ -38,7 +38,27 @@ import android.view.View;
  */
 public class LineGraphView extends View
 {
-	private List<float[]> points = new ArrayList<float[]>();
+	// The last maxDataWidth samples of each series, in a ring: sample i of series j, counting from 
+	// the oldest, is at samples[j * maxDataWidth + (head + i) % maxDataWidth].
+	private final float[] samples;
+	// How many series each sample was given, by the same ring index; the rest are not drawn for it.
+	private final int[] sampleSeries;
+	private int head, count;
+	
+	// The largest magnitude in the window, kept as a monotonic queue: the sequence numbers of samples, 
+	// oldest first, whose largest magnitude across series is greater than that of every later sample, 
+	// so the front is the window's maximum. Also a ring, of the same capacity.
+	private final long[] maxSequence;
+	private final float[] maxValue;
+	private int maxHead, maxCount;
+	private long sequence;
+	
+	// What onDraw draws: a copy of the samples, their ring indices and the window's maximum, taken 
+	// under the lock at the start of each frame, so that addPoint never waits for a frame to be drawn.
+	private final float[] drawSamples;
+	private final int[] drawSampleSeries;
+	private int drawHead, drawCount;
+	private float drawMax;
 	
 	private List<Paint> linePaints = new ArrayList<Paint>();
 	
@@ -58,6 +78,8 @@ public class LineGraphView extends View
 	private final int AXIS_WIDTH = 100;
 	
 	private float xScale, yScale;
+	// One series' line segments, as Canvas.drawLines takes them, reused from frame to frame.
+	private float[] lines = new float[0];
 	private final int maxDataWidth;
 	private final List<String> labels;
 	
@@ -77,6 +99,12 @@ public class LineGraphView extends View
 		
 		maxDataWidth = dataWidth;
 		this.labels = labels;
+		samples = new float[labels.size() * dataWidth];
+		drawSamples = new float[samples.length];
+		sampleSeries = new int[dataWidth];
+		drawSampleSeries = new int[dataWidth];
+		maxSequence = new long[dataWidth];
+		maxValue = new float[dataWidth];
 		
 		setColors(defalutColors);
 	}
@@ -127,16 +155,9 @@ public class LineGraphView extends View
 		canvas.drawLine(0, HEIGHT / 2, WIDTH + AXIS_WIDTH, HEIGHT / 2, graphPaint);
 		canvas.drawLine(5 + AXIS_WIDTH, 0, 5 + AXIS_WIDTH, HEIGHT, graphPaint);
 		
-		float maxY = 0;
+		float maxY = drawMax;
 		
-		for(float[] pointArray : points){
-			for(float point : pointArray){
-				if(Math.abs(point) > maxY)
-					maxY = Math.abs(point);
-			}
-		}
-		
-		xScale = (WIDTH)/ (points.size()+1);
+		xScale = (float) WIDTH / (drawCount+1);
 		yScale = 40;
 
 		//yScale = (HEIGHT / 2) / maxY;
@@ -150,16 +171,67 @@ public class LineGraphView extends View
 		}
 	}
 	
-	private void drawLine(Canvas canvas, int count, Float rawSrc, Float rawDest, Paint paint)
+	/**
+	 * Fills lines with the segments of one series, and returns how many floats were written.
+	 * 
+	 * When there are more samples than pixels across, each pixel column keeps only the smallest and 
+	 * largest of the samples that fall in it, in the order they came, so that at most two points 
+	 * per column are drawn and every peak still shows. The line breaks at samples the series 
+	 * was not given for.
+	 */
+	private int buildLines(int series)
 	{
-		float graphSrcX, graphSrcY, graphDestX, graphDestY;
+		int first = series * maxDataWidth;
+		int ret = 0;
+		float lastX = 0, lastY = 0;
+		boolean any = false;
 		
-		graphSrcX = (count - 1) * xScale + AXIS_WIDTH;
-		graphSrcY = HEIGHT - (rawSrc * yScale + (HEIGHT / 2));
-		graphDestX = (count) * xScale + AXIS_WIDTH;
-		graphDestY = HEIGHT - (rawDest * yScale + (HEIGHT / 2));
+		// the column being gathered, and the samples in it with the lowest and highest value
+		int column = Integer.MIN_VALUE;
+		int lowIndex = -1, highIndex = -1;
+		float low = 0, high = 0;
 		
-		canvas.drawLine(graphSrcX, graphSrcY, graphDestX, graphDestY, paint);
+		for(int i = 0; i <= drawCount; i++){
+			int c = i < drawCount ? (int) (i * xScale) : Integer.MAX_VALUE;
+			boolean absent = i < drawCount && series >= drawSampleSeries[(drawHead + i) % maxDataWidth];
+			if((c != column || absent) && lowIndex != -1) {
+				// the column is done: add its points, oldest first
+				int a = Math.min(lowIndex, highIndex), b = Math.max(lowIndex, highIndex);
+				float ya = a == lowIndex ? low : high, yb = a == lowIndex ? high : low;
+				for(int k = 0; k < (a == b ? 1 : 2); k++){
+					float x = (k == 0 ? a : b) * xScale + AXIS_WIDTH;
+					float y = HEIGHT - ((k == 0 ? ya : yb) * yScale + (HEIGHT / 2));
+					if(any) {
+						lines[ret++] = lastX;
+						lines[ret++] = lastY;
+						lines[ret++] = x;
+						lines[ret++] = y;
+					}
+					lastX = x;
+					lastY = y;
+					any = true;
+				}
+				lowIndex = highIndex = -1;
+			}
+			if(i == drawCount)
+				break;
+			if(absent) {
+				any = false;
+				continue;
+			}
+			
+			column = c;
+			float value = drawSamples[first + (drawHead + i) % maxDataWidth];
+			if(lowIndex == -1 || value < low) {
+				low = value;
+				lowIndex = i;
+			}
+			if(highIndex == -1 || value > high) {
+				high = value;
+				highIndex = i;
+			}
+		}
+		return ret;
 	}
 	
 	/*
@@ -169,50 +241,112 @@ public class LineGraphView extends View
 	@Override
 	protected void onDraw(Canvas canvas){
 		super.onDraw(canvas);
+		synchronized(this) {
+			System.arraycopy(samples, 0, drawSamples, 0, samples.length);
+			System.arraycopy(sampleSeries, 0, drawSampleSeries, 0, sampleSeries.length);
+			drawHead = head;
+			drawCount = count;
+			drawMax = maxCount == 0 ? 0 : maxValue[maxHead];
+		}
 		prepForData(canvas);
 		
-		for(int i = 1; i < points.size(); i++){
-			for(int j = 0; j < points.get(i).length; j++){
-				drawLine(canvas, i, points.get(i-1)[j], points.get(i)[j], linePaints.get(j));
-			}
+		// at most two points per column, so at most 4 * (2 * columns - 1) floats, whatever the sample count
+		int most = 4 * Math.min(drawCount, 2 * (WIDTH + 1));
+		if(lines.length < most)
+			lines = new float[most];
+		
+		for(int j = 0; j < labels.size(); j++){
+			int floats = buildLines(j);
+			if(floats > 0)
+				canvas.drawLines(lines, 0, floats, linePaints.get(j));
 		}
 
 	}
 	
 	/**
 	 * Adds a set of datapoints for the next x value. The data points should be in the same 
-	 * order as the array of labels this object was initialized with.
+	 * order as the array of labels this object was initialized with; series past the end 
+	 * of the array are not drawn for this x value.
+	 * May be called from any thread.
 	 * @param y The array of datapoints.
 	 */
-	public void addPoint(float[] y)
+	public synchronized void addPoint(float[] y)
 	{
-		points.add(y.clone());
-		if(points.size() > maxDataWidth)
-			points.remove(0);
+		int slot = nextSlot();
+		int series = Math.min(labels.size(), y.length);
+		float max = 0;
+		for(int j = 0; j < series; j++){
+			samples[j * maxDataWidth + slot] = y[j];
+			max = Math.max(max, Math.abs(y[j]));
+		}
+		sampleSeries[slot] = series;
+		addMax(max);
 		
-		invalidate();
+		postInvalidate();
 	}
 	
 	/**
 	 * Adds a set of datapoints for the next x value. The data points should be in the same 
-	 * order as the array of labels this object was initialized with.
+	 * order as the array of labels this object was initialized with; series past the end 
+	 * of the list are not drawn for this x value.
+	 * May be called from any thread.
 	 * @param y The List of datapoints.
 	 */
-	public void addPoint(List<Float> y)
+	public synchronized void addPoint(List<Float> y)
 	{
-		float[] floats = new float[y.size()];
+		int slot = nextSlot();
+		int series = Math.min(labels.size(), y.size());
+		float max = 0;
+		for(int j = 0; j < series; j++){
+			float value = y.get(j);
+			samples[j * maxDataWidth + slot] = value;
+			max = Math.max(max, Math.abs(value));
+		}
+		sampleSeries[slot] = series;
+		addMax(max);
 		
-		for(int i = 0; i < y.size(); i++){
-			floats[i] = y.get(i);
+		postInvalidate();
+	}
+	
+	/**
+	 * Makes room for one more sample, dropping the oldest if the graph is full.
+	 * @return the slot the new sample goes in
+	 */
+	private int nextSlot()
+	{
+		if(count < maxDataWidth)
+			return (head + count++) % maxDataWidth;
+		int slot = head;
+		head = (head + 1) % maxDataWidth;
+		return slot;
+	}
+	
+	/**
+	 * Updates the window's maximum for a new sample whose largest magnitude is max.
+	 */
+	private void addMax(float max)
+	{
+		long seq = sequence++;
+		// samples no larger than the new one can never be the maximum again
+		while(maxCount > 0 && maxValue[(maxHead + maxCount - 1) % maxDataWidth] <= max)
+			maxCount--;
+		// and the oldest may have left the window
+		if(maxCount > 0 && maxSequence[maxHead] <= seq - maxDataWidth) {
+			maxHead = (maxHead + 1) % maxDataWidth;
+			maxCount--;
 		}
-		addPoint(y);
+		int slot = (maxHead + maxCount) % maxDataWidth;
+		maxSequence[slot] = seq;
+		maxValue[slot] = max;
+		maxCount++;
 	}
 
 	/**
 	 * Clears all the data from the graph.
 	 */
-	public void purge(){
-		points.clear();
-		invalidate();
+	public synchronized void purge(){
+		head = count = 0;
+		maxHead = maxCount = 0;
+		postInvalidate();
 	}
 }
@@ -34,18 +34,38 @@ public class LineSegment
     public final PointF start, end;
     public final float m, b; // as in, y = mx + b.
     
+    // Results of the primitive version of findIntercept.
+    static final int NO_INTERCEPT = 0;
+    static final int POINT_INTERCEPT = 1;
+    static final int SAME_LINE = 2;
+    
     /** Creates a line segment with given start and end points. */
     public LineSegment(PointF start, PointF end) {
-        this.start = new PointF(start.x, start.y);
-        this.end = new PointF(end.x, end.y);
+        this(start.x, start.y, end.x, end.y);
+    }
+    
+    /** Creates a line segment with the given start and end coordinates. */
+    LineSegment(float startX, float startY, float endX, float endY) {
+        this.start = new PointF(startX, startY);
+        this.end = new PointF(endX, endY);
         
-        m = (end.y - start.y) / (end.x - start.x);
-        b = start.y - (start.x * m);
+        m = slope(startX, startY, endX, endY);
+        b = intercept(startX, startY, m);
+    }
+    
+    /** The slope of the line through the two points, as stored in m. */
+    static float slope(float startX, float startY, float endX, float endY) {
+        return (endY - startY) / (endX - startX);
     }
     
-    private boolean isPointInSegment(float x, float y) {
-        return ( (x >= Math.min(start.x, end.x) && x <= Math.max(start.x, end.x)) || VectorUtils.isZero(x - start.x) || VectorUtils.isZero(x - end.x)) && 
-                ( (y >= Math.min(start.y, end.y) && y <= Math.max(start.y, end.y)) || VectorUtils.isZero(y - start.y) || VectorUtils.isZero(y - end.y));
+    /** The y intercept of the line through the point with the given slope, as stored in b. */
+    static float intercept(float startX, float startY, float m) {
+        return startY - (startX * m);
+    }
+    
+    private static boolean isPointInSegment(float sx, float sy, float ex, float ey, float x, float y) {
+        return ( (x >= Math.min(sx, ex) && x <= Math.max(sx, ex)) || VectorUtils.isZero(x - sx) || VectorUtils.isZero(x - ex)) && 
+                ( (y >= Math.min(sy, ey) && y <= Math.max(sy, ey)) || VectorUtils.isZero(y - sy) || VectorUtils.isZero(y - ey));
     }
     
     /**
@@ -54,43 +74,65 @@ public class LineSegment
      * @return the point where the two segments intersect, or null if they do not.
      */
     public PointF findIntercept(LineSegment other) {
-        // Special case for vertical lines
-        if(Float.isInfinite(m) && Float.isInfinite(other.m)) {
-            if(start.x == other.start.x)
-                return new PointF(Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY);
+        float[] point = new float[2];
+        switch(findIntercept(start.x, start.y, end.x, end.y, m, b,
+                other.start.x, other.start.y, other.end.x, other.end.y, other.m, other.b, point)) {
+        case POINT_INTERCEPT:
+            return new PointF(point[0], point[1]);
+        case SAME_LINE:
+            return new PointF(Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY);
+        default:
             return null;
         }
+    }
+    
+    /**
+     * findIntercept on raw coordinates, so that callers holding packed geometry do not need to allocate.
+     * @param point receives the intercept when POINT_INTERCEPT is returned
+     * @return NO_INTERCEPT, POINT_INTERCEPT, or SAME_LINE when both segments are vertical 
+     * or horizontal and lie on the same line
+     */
+    static int findIntercept(float sx, float sy, float ex, float ey, float m, float b,
+            float osx, float osy, float oex, float oey, float om, float ob, float[] point) {
+        // Special case for vertical lines
+        if(Float.isInfinite(m) && Float.isInfinite(om)) {
+            if(sx == osx)
+                return SAME_LINE;
+            return NO_INTERCEPT;
+        }
         // special case for horizontal lines
-        if(m == 0 && other.m == 0) {
-            if(start.y == other.start.y)
-                return new PointF(Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY);
-            return null;
+        if(m == 0 && om == 0) {
+            if(sy == osy)
+                return SAME_LINE;
+            return NO_INTERCEPT;
         }
         
         float x, y;
         
-        if(Float.isInfinite(other.m)) {
-            x = other.start.x;
+        if(Float.isInfinite(om)) {
+            x = osx;
         } else if(Float.isInfinite(m)) {
-            return other.findIntercept(this);
+            return findIntercept(osx, osy, oex, oey, om, ob, sx, sy, ex, ey, m, b, point);
         } else {
             // first find intercept. 
             // solve for X
             // m1x + b1 = m2x + b2
             // b1 - b2 = (m2 - m1)x
             
-            x = (b - other.b) / (other.m - m);
+            x = (b - ob) / (om - m);
         }
         
         // Now solve for y
         y = m*x + b;
         
         // now see if this point is on both line segments.
-        if (isPointInSegment(x, y) && other.isPointInSegment(x, y)) {
-            return new PointF(x,y);
+        if (isPointInSegment(sx, sy, ex, ey, x, y) && isPointInSegment(osx, osy, oex, oey, x, y)) {
+            point[0] = x;
+            point[1] = y;
+            return POINT_INTERCEPT;
         }
         
-        return null;
+        return NO_INTERCEPT;
     }
     
     /**
@@ -99,13 +141,18 @@ public class LineSegment
      * @return true if point is contained in this line segment
      */
     public boolean containsPoint(PointF point) {
-        if(!VectorUtils.areEqual(point.x * m + b, point.y))
+        return containsPoint(start.x, start.y, end.x, end.y, m, b, point.x, point.y);
+    }
+    
+    /** containsPoint on raw coordinates. */
+    static boolean containsPoint(float sx, float sy, float ex, float ey, float m, float b, float x, float y) {
+        if(!VectorUtils.areEqual(x * m + b, y))
             return false;
         // we know the point is on the line; now, if it is in the square denoted by the start and end point, then it is in the segment
-        return point.x < Math.max(start.x, end.x) && point.x > Math.min(start.x, end.x) &&
-                point.y < Math.max(start.y, end.y) && point.y > Math.min(start.y, end.y) 
-                    || ((VectorUtils.areEqual(point.x, start.x) || VectorUtils.areEqual(point.x, end.x)) &&
-                        (VectorUtils.areEqual(point.y, start.y) || VectorUtils.areEqual(point.y, end.y)));
+        return x < Math.max(sx, ex) && x > Math.min(sx, ex) &&
+                y < Math.max(sy, ey) && y > Math.min(sy, ey) 
+                    || ((VectorUtils.areEqual(x, sx) || VectorUtils.areEqual(x, ex)) &&
+                        (VectorUtils.areEqual(y, sy) || VectorUtils.areEqual(y, ey)));
     }
     
     /**
@@ -133,14 +180,22 @@ public class LineSegment
         if(!(other instanceof LineSegment))
             return false;
         
+        return theSame(start.x, start.y, end.x, end.y, m, b,
+                other.start.x, other.start.y, other.end.x, other.end.y, other.m, other.b);
+    }
+    
+    /** theSame on raw coordinates. */
+    static boolean theSame(float sx, float sy, float ex, float ey, float m, float b,
+            float osx, float osy, float oex, float oey, float om, float ob)
+    {
         if(!(
-                VectorUtils.areEqual(start, other.start) && VectorUtils.areEqual(end, other.end) ||
-                VectorUtils.areEqual(start, other.end) && VectorUtils.areEqual(end, other.start)
+                VectorUtils.areEqual(sx, osx) && VectorUtils.areEqual(sy, osy) && VectorUtils.areEqual(ex, oex) && VectorUtils.areEqual(ey, oey) ||
+                VectorUtils.areEqual(sx, oex) && VectorUtils.areEqual(sy, oey) && VectorUtils.areEqual(ex, osx) && VectorUtils.areEqual(ey, osy)
             )) {
             return false;
         }
         
-        if(!VectorUtils.areEqual(m, other.m) || !VectorUtils.areEqual(b, other.b)) {
+        if(!VectorUtils.areEqual(m, om) || !VectorUtils.areEqual(b, ob)) {
             return false;
         }
             
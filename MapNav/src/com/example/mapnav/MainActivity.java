@@ -1,8 +1,8 @@
 package com.example.mapnav;
 
-import java.util.ArrayList;
+import java.io.File;
+import java.io.IOException;
 import java.util.Arrays;
-import java.util.List;
 
 import com.example.mapnav.R;
 import com.example.mapnav.R.id;
@@ -17,6 +17,7 @@ import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
 import android.location.GpsStatus.Listener;
 import android.os.Bundle;
+import android.util.Log;
 import android.support.v4.app.Fragment;
 import android.support.v7.app.AppCompatActivity;
 import android.view.ContextMenu;
@@ -34,16 +35,25 @@ import android.widget.TextView;
 
 public class MainActivity extends AppCompatActivity{
 	
+	static final String TAG = "MapNav";
 	static LineGraphView graph;
-	static int stepCount, stepCountA, stepCountN, stepCountNE, stepCountE, stepCountSE;
-	static float[] mRotation, mGeomagnetic, mGravity, mOrientation;
-	static float displacementN, displacementE;
-	static float oValues, oValueOffset, rawOValue;
-	static final int offset = 1;
+	static int stepCount;
 	static NavigationalMap nm;
 	static MapView mv;
-	static PointF pointOrigin, pointDest, pointUser;
-	static final float stepSize = 0.66f;
+	// Shows the guidance the navigation thread publishes
+	static TextView guidanceView;
+	// How far simplifying the map on load may move a wall, in meters
+	static final float mapSimplifyTolerance = 0.01f;
+	static int routingMode = NavigationProcessor.ROUTE_INCREMENTAL;
+	// Does the step detection and routing on its own thread; the sensor listeners only queue samples for it
+	static NavigationProcessor processor;
+	// Dropped and late samples already logged
+	static long reportedDropped, reportedLate;
+	// Records every sensor sample to a trace file while switched on from the menu, for replaying off the device with StepTraceReplay
+	static final String sensorTraceFile = "sensors-%d.trace";
+	// About half an hour of all four sensors at their rates here; the oldest samples are overwritten after that
+	static final int sensorTraceCapacity = 1 << 19;
+	static SensorTraceRecorder recorder;
 	
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -72,8 +82,105 @@ public class MainActivity extends AppCompatActivity{
 		// Initialize navigational map and map view
 		mv = new MapView (getApplicationContext(), size.x, 650, 28, 28);
 		registerForContextMenu(mv);
-		nm = MapLoader.loadMap(getExternalFilesDir(null),"E2-3344-Lab-room.svg");
+		
+		// Start the navigation thread; it ignores steps until the map is loaded
+		if(processor != null)
+			processor.stop();
+		processor = new NavigationProcessor(routingMode, stepCount, new NavigationProcessor.Listener() {
+			@Override
+			public void navigationUpdated(NavigationSnapshot snapshot) {
+				showNavigation(snapshot);
+			}
+		}, graph, new PeakTroughStepDetector());
+		processor.start();
+		
+		// Load the map in the background, drawing walls as they are read
+		MapLoader.setSimplifyTolerance(mapSimplifyTolerance);
+		MapLoader.loadMapAsync(getExternalFilesDir(null),"E2-3344-Lab-room.svg", new MapLoadListener() {
+			@Override
+			public void mapProgress(NavigationalMap partial, float progress) {
+				mv.setPartialMap(partial);
+				Log.i(TAG, String.format("Map %.0f%% loaded", progress * 100));
+			}
+
+			@Override
+			public void mapLoaded(NavigationalMap map, long elapsedMillis) {
+				Log.i(TAG, "Map loaded in " + elapsedMillis + " ms");
+				setNavigationalMap(map);
+			}
+
+			@Override
+			public void mapLoadFailed(Exception e) {
+				Log.e(TAG, "Map could not be loaded", e);
+			}
+		});
+    }
+    
+    @Override
+    protected void onDestroy() {
+    	super.onDestroy();
+    	processor.stop();
+    	// Keep recording across a rotation; the new activity's listeners carry on with the same trace
+    	if(isFinishing()) {
+    		stopRecording();
+    	}
+    }
+    
+    /**
+     * Starts recording sensor samples to a new trace file, named by the time so earlier traces are kept.
+     */
+    void startRecording() {
+    	if(recorder != null) {
+    		return;
+    	}
+    	File file = new File(getExternalFilesDir(null), String.format(sensorTraceFile, System.currentTimeMillis()));
+    	try {
+    		recorder = new SensorTraceRecorder(file, sensorTraceCapacity);
+    		Log.i(TAG, "Recording sensor trace to " + file);
+    	} catch (IOException e) {
+    		Log.e(TAG, "Sensor trace could not be created", e);
+    	}
+    }
+    
+    /**
+     * Stops recording sensor samples, writing out the trace.
+     */
+    void stopRecording() {
+    	if(recorder == null) {
+    		return;
+    	}
+    	try {
+    		recorder.close();
+    	} catch (IOException e) {
+    		Log.e(TAG, "Sensor trace could not be saved", e);
+    	}
+    	recorder = null;
+    }
+    
+    /**
+     * Shows a newly loaded map, and has the navigation thread build everything routing needs from it.
+     */
+    static void setNavigationalMap(NavigationalMap map) {
+		nm = map;
 		mv.setMap(nm);
+		processor.setMap(nm);
+    }
+    
+    /**
+     * Shows what the navigation thread last worked out.
+     */
+    static void showNavigation(NavigationSnapshot snapshot) {
+    	stepCount = snapshot.getStepCount();
+		mv.setUserPoint(snapshot.getUserX(), snapshot.getUserY());
+		mv.setUserPath(snapshot.getRoute());
+		if(guidanceView != null)
+			guidanceView.setText(snapshot.getGuidance());
+		
+		if(snapshot.getDroppedSamples() > reportedDropped || snapshot.getLateSamples() > reportedLate) {
+			reportedDropped = snapshot.getDroppedSamples();
+			reportedLate = snapshot.getLateSamples();
+			Log.w(TAG, "Sensor samples dropped: " + reportedDropped + ", late: " + reportedLate);
+		}
     }
 
     @Override
@@ -100,6 +207,12 @@ public class MainActivity extends AppCompatActivity{
         return true;
     }
 
+    @Override
+    public boolean onPrepareOptionsMenu(Menu menu) {
+        menu.findItem(R.id.action_record_sensors).setChecked(recorder != null);
+        return super.onPrepareOptionsMenu(menu);
+    }
+
     @Override
     public boolean onOptionsItemSelected(MenuItem item) {
         // Handle action bar item clicks here. The action bar will
@@ -109,6 +222,15 @@ public class MainActivity extends AppCompatActivity{
         if (id == R.id.action_settings) {
             return true;
         }
+        if (id == R.id.action_record_sensors) {
+            if (recorder == null) {
+                startRecording();
+            } else {
+                stopRecording();
+            }
+            item.setChecked(recorder != null);
+            return true;
+        }
         return super.onOptionsItemSelected(item);
     }
 
@@ -144,6 +266,7 @@ public class MainActivity extends AppCompatActivity{
     		// Accelerometer information
     		TextView linearAccelerometer = new TextView(rootView.getContext());
     		linearAccelerometer.setTypeface(null, Typeface.BOLD);
+    		guidanceView = linearAccelerometer;
        		
     		// Button to reset displacement
     		Button resetButton = new Button(rootView.getContext());
@@ -151,8 +274,7 @@ public class MainActivity extends AppCompatActivity{
     		
     		resetButton.setOnClickListener(new View.OnClickListener() {
                 public void onClick(View view) {
-                    stepCount = stepCountN = stepCountNE = stepCountE = stepCountSE = 0;
-                    displacementN = displacementE = 0.0f;
+                    processor.resetSteps();
                 }
             });
     		
@@ -162,7 +284,7 @@ public class MainActivity extends AppCompatActivity{
     		
     		calibrateButton.setOnClickListener(new View.OnClickListener() {
     			public void onClick(View view) {
-    				oValueOffset = rawOValue;
+    				processor.calibrateNorth();
     			}
     		});
     		
@@ -185,15 +307,13 @@ public class MainActivity extends AppCompatActivity{
     		Sensor orientationSensor = sensorManager.getDefaultSensor(Sensor.TYPE_ORIENTATION);
     		Sensor magneticSensor = sensorManager.getDefaultSensor(Sensor.TYPE_MAGNETIC_FIELD);
     		
-    		SensorEventListener linearAccelerometerSensorListener = new AccelerometerEventListener(linearAccelerometer);
-    		SensorEventListener rotationSensorListener = new RotationEventListener();
-    		SensorEventListener orientationSensorListener = new OrientationListener();
-    		SensorEventListener magneticSensorListener = new MagneticFieldListener();
+    		// All four on this thread, as the queue to the navigation thread takes one producer
+    		SensorEventListener sampleListener = new SampleListener();
     		
-    		sensorManager.registerListener(rotationSensorListener, rotationSensor, SensorManager.SENSOR_DELAY_FASTEST);
-    		sensorManager.registerListener(linearAccelerometerSensorListener, linearAccelerometerSensor, SensorManager.SENSOR_DELAY_GAME);
-    		sensorManager.registerListener(orientationSensorListener, orientationSensor, SensorManager.SENSOR_DELAY_UI);
-    		sensorManager.registerListener(magneticSensorListener, magneticSensor, SensorManager.SENSOR_DELAY_NORMAL);
+    		sensorManager.registerListener(sampleListener, rotationSensor, SensorManager.SENSOR_DELAY_FASTEST);
+    		sensorManager.registerListener(sampleListener, linearAccelerometerSensor, SensorManager.SENSOR_DELAY_GAME);
+    		sensorManager.registerListener(sampleListener, orientationSensor, SensorManager.SENSOR_DELAY_UI);
+    		sensorManager.registerListener(sampleListener, magneticSensor, SensorManager.SENSOR_DELAY_NORMAL);
     		
     		// Register position listener
     		Position myPositionListener = new Position();
@@ -202,330 +322,39 @@ public class MainActivity extends AppCompatActivity{
     		return rootView;
     	}
     	
-    	class RotationEventListener implements SensorEventListener {
+    	/**
+    	 * Hands every sensor event to the navigation thread, recording it first if a trace is being recorded; 
+    	 * does nothing else on the UI thread.
+    	 */
+    	class SampleListener implements SensorEventListener {
     		
 			@Override
 			public void onSensorChanged(SensorEvent se) {
-				if (se.sensor.getType() == Sensor.TYPE_GYROSCOPE) {
-					mRotation = se.values;
-				}
-			}
-
-			@Override
-			public void onAccuracyChanged(Sensor sensor, int accuracy) {
-
-			}
-    	}
-    	
-    	class OrientationListener implements SensorEventListener {
-
-			@Override
-			public void onSensorChanged(SensorEvent event) {
-				if(event.sensor.getType() == Sensor.TYPE_ORIENTATION) {
-					// Determine heading
-					mOrientation = event.values;
-					
-					rawOValue = event.values[0];
-					oValues = (event.values[0] - oValueOffset) % 360;
-					
-					if(oValues < 0) {
-						oValues += 360;
-					}
-				}
+				if(recorder != null)
+					recorder.record(se.sensor.getType(), se.timestamp, se.values);
+				processor.offer(se.sensor.getType(), se.timestamp, se.values);
 			}
 
 			@Override
 			public void onAccuracyChanged(Sensor sensor, int accuracy) {
-				
-			}
-    		
-    	}
-    	
-    	class MagneticFieldListener implements SensorEventListener {
-    		
-			@Override
-			public void onAccuracyChanged(Sensor arg0, int arg1) {
-				
-			}
 
-			@Override
-			public void onSensorChanged(SensorEvent event) {
-				if(event.sensor.getType() == Sensor.TYPE_MAGNETIC_FIELD) {
-					// Store geomagnetic values
-					mGeomagnetic = event.values;
-				}
 			}
     	}
     	
-    	class AccelerometerEventListener implements SensorEventListener {
-        	TextView output; // Output textview
-        	float[] store;
-        	float previousOutputz;
-        	boolean highPoint, lowPoint, endPoint;
-        	double z;
-        	final float alpha = 0.35f;        	
-        	
-        	public AccelerometerEventListener(TextView outputView)	{
-        		output = outputView;
-            	store = new float [3];
-        	}
-        	
-        	public void onAccuracyChanged(Sensor s, int i){
-        		
-        	}
-        	
-        	public void onSensorChanged(SensorEvent se){
-        		if (se.sensor.getType() == Sensor.TYPE_LINEAR_ACCELERATION) {
-        	        mGravity = se.values;
-        			store [2] = store [1];
-        			store [1] = store [0];
-        			store [0] = se.values[2] - offset;
-  
-        			// Smooth out acceleration
-        			z = alpha * store[0] + (1 - alpha) * previousOutputz;
-        			previousOutputz = (float) z;
-        			
-        			float[] myArray = { (float) z };
-        			
-        			graph.addPoint(myArray);
-        			    
-        			// State machine to detect footsteps
-        			if ( z > 1 && Math.abs(se.values[1]) > 1.5 && Math.abs(mRotation[0]) < 2.5 && Math.abs(mRotation[1]) < 2.5) 
-        			{
-        					highPoint = true;        					
-        			}
-        			else if ( z < -.5 && highPoint && Math.abs(mRotation[0]) < 2.5 && Math.abs(mRotation[1]) < 2.5) 
-        			{
-        					lowPoint = true;
-        			}
-        			else if ( z < 1 && z > -.5 && highPoint && lowPoint && Math.abs(mRotation[0]) < 2.5 && Math.abs(mRotation[1]) < 2.5)
-        			{
-        					endPoint = true;
-        			}
-
-        			if( Math.abs(mRotation[0]) > 5 || Math.abs(mRotation[1]) > 5) 
-        			{
-        				highPoint = lowPoint = endPoint=  false;
-        			}
-        			
-        			if (highPoint && lowPoint && endPoint )
-        			{
-        				highPoint = lowPoint = endPoint = false;
-        				
-        				/*8 quadrants instead of 4
-    					if (oValues >=  337.5 || oValues < 22.5 )
-    						stepCountN++;
-    					else if(oValues >= 22.5 && oValues < 67.5)
-    						stepCountNE++;
-    					else if(oValues >= 67.5 && oValues < 112.5)
-    						stepCountE++;
-    					else if(oValues >= 112.5 && oValues < 157.5)
-    						stepCountSE++;
-    					else if(oValues >= 157.5 && oValues < 202.5)
-    						stepCountN--;
-    					else if(oValues >= 202.5 && oValues < 247.5)
-    						stepCountNE--;
-    					else if(oValues >= 247.5 && oValues < 292.5)
-    						stepCountE--;
-    					else if(oValues >= 292.5 && oValues < 337.5)
-    						stepCountSE--;*/
-        				
-        				// Detect if stepping through wall
-        				Integer stepCountNTemp = new Integer(stepCountN);
-        				Integer stepCountETemp = new Integer(stepCountE);
-        				
-        				if(oValues >= 315 || oValues < 45)
-        					stepCountNTemp++;
-        				else if(oValues >= 45 && oValues < 135)
-        					stepCountETemp++;
-        				else if(oValues >= 135 && oValues < 225)
-        					stepCountNTemp--;
-        				else if(oValues >= 225 && oValues < 315)
-        					stepCountETemp--;
-        				
-        				if(nm.calculateIntersections(pointUser, new PointF(pointOrigin.x + ( stepCountETemp / stepSize ), pointOrigin.y - ( stepCountNTemp / stepSize ))).isEmpty()){
-        					stepCountN = new Integer(stepCountNTemp);
-        					stepCountE = new Integer(stepCountETemp);
-            				stepCount++;
-        				}
-        			}
-        			
-        			// Calculate displacement
-        			displacementN = (float) stepCountN;
-        			displacementE = (float) stepCountE;
-        			
-        			//Calculate displacement when using 8 quadrants
-        			//displacementN = (float) (stepCountN + Math.sqrt(0.5)*stepCountNE - Math.sqrt(0.5)*stepCountSE);
-					//displacementE = (float) (stepCountE + Math.sqrt(0.5)*stepCountNE + Math.sqrt(0.5)*stepCountSE);
-        			
-        			// Calculate user position
-					pointUser = new PointF(displacementE / stepSize + pointOrigin.x, -displacementN / stepSize + pointOrigin.y);
-					mv.setUserPoint(pointUser);
-					
-					//Output information
-					String value = "";
-					double distance = VectorUtils.distance(pointUser, pointDest);
-					String orientation = "";
-					
-   					if (oValues >=  337.5 || oValues < 22.5 )
-						orientation = "N";
-					else if(oValues >= 22.5 && oValues < 67.5)
-						orientation = "NE";
-					else if(oValues >= 67.5 && oValues < 112.5)
-						orientation = "E";
-					else if(oValues >= 112.5 && oValues < 157.5)
-						orientation = "SE";
-					else if(oValues >= 157.5 && oValues < 202.5)
-						orientation = "S";
-					else if(oValues >= 202.5 && oValues < 247.5)
-						orientation = "SW";
-					else if(oValues >= 247.5 && oValues < 292.5)
-						orientation = "W";
-					else if(oValues >= 292.5 && oValues < 337.5)
-						orientation = "NW";
-					
-					value = String.format("Step Count: %d\n" +
-							"Displacement North: %.3f\n" +
-							"Displacement East: %.3f\n" +
-							"Orientation: %s\n" +
-							"Heading: %.3f\n" +
-							"Distance: %.3f\n",
-							stepCount, displacementN, displacementE, orientation, oValues, distance);
-					
-					// Calculate path to destinaion
-					PointF pointHead = new PointF(pointUser.x, pointUser.y);
-					PointF pointNext = pointDest;
-					List<PointF> myList = new ArrayList<PointF>();
-					myList.add(pointUser);
-					
-					//Direct line of sight
-					if(nm.calculateIntersections(pointUser, pointDest).isEmpty()){
-						pointNext = new PointF(pointDest.x, pointDest.y);
-						myList.add(pointNext);
-					//Check if there is a perpendicular path
-					}else if(nm.calculateIntersections(pointUser, new PointF(pointUser.x, pointDest.y)).isEmpty()
-							&& nm.calculateIntersections(pointDest, new PointF(pointUser.x, pointDest.y)).isEmpty()){
-						pointNext = new PointF(pointUser.x, pointDest.y);
-						myList.add(pointNext);
-						myList.add(pointDest);
-					}else if(nm.calculateIntersections(pointUser, new PointF(pointDest.x, pointUser.y)).isEmpty()
-							&& nm.calculateIntersections(pointDest, new PointF(pointDest.x, pointUser.y)).isEmpty()){
-						pointNext = new PointF(pointDest.x, pointUser.y);
-						myList.add(pointNext);
-						myList.add(pointDest);
-					//Find nearest wall
-					}else{
-						List<InterceptPoint> myIntercepts = new ArrayList<InterceptPoint>();
-						myIntercepts = nm.calculateIntersections(pointUser, pointDest);
-						
-						LineSegment wall = myIntercepts.get(0).getLine();
-						
-						float[] difference;// = VectorUtils.difference(wall.end, myIntercepts.get(0).getPoint());
-						float[] uV = wall.findUnitVector();
-						
-						// Determine which point to use as next point
-						if(pointUser.x > pointDest.x){
-							difference = VectorUtils.difference(wall.start, myIntercepts.get(0).getPoint());
-							
-							if(wall.start.y > pointUser.y){
-								pointNext = new PointF(pointUser.x, myIntercepts.get(0).getPoint().y - uV[1]*difference[1]*1.1f);
-							}else{
-								pointNext = new PointF(myIntercepts.get(0).getPoint().y - uV[1]*difference[1]*1.2f, myIntercepts.get(0).getPoint().y - uV[1]*difference[1]*1.2f);
-							}
-						}else{
-							difference = VectorUtils.difference(wall.end, myIntercepts.get(0).getPoint());
-							
-							if(wall.end.y > pointUser.y){
-								pointNext = new PointF(pointUser.x, myIntercepts.get(0).getPoint().y + uV[1]*difference[1]*1.1f);
-							}else{
-								pointNext = new PointF(myIntercepts.get(0).getPoint().y + uV[1]*difference[1]*1.2f, myIntercepts.get(0).getPoint().y - uV[1]*difference[1]*1.2f);
-							}
-						}
-						
-						// Add the next point
-						myList.add(pointNext);
-						PointF a = new PointF(pointNext.x, pointNext.y);
-						
-						PointF b;
-
-						// Get perpendicular path from next path to destination
-						if(nm.calculateIntersections(a, new PointF(a.x, pointDest.y)).isEmpty()
-								&& nm.calculateIntersections(pointDest, new PointF(a.x, pointDest.y)).isEmpty()){
-							b = new PointF(a.x, pointDest.y);
-							myList.add(b);
-						}else if(nm.calculateIntersections(a, new PointF(pointDest.x, a.y)).isEmpty()
-								&& nm.calculateIntersections(pointDest, new PointF(pointDest.x, a.y)).isEmpty()){
-							b = new PointF(pointDest.x, a.y);
-							myList.add(b);
-						}
-							
-						myList.add(pointDest);
-					}
-					
-					// Get angle to next point
-   					if (oValues >=  337.5 || oValues < 22.5 ){
-						pointHead.y -= 1;
-   					}else if(oValues >= 22.5 && oValues < 67.5){
-						pointHead.y -= 1;
-						pointHead.x += 1;
-   					}else if(oValues >= 67.5 && oValues < 112.5){
-						pointHead.x += 1;
-   					}else if(oValues >= 112.5 && oValues < 157.5){
-						pointHead.y += 1;
-   						pointHead.x += 1;
-   					}else if(oValues >= 157.5 && oValues < 202.5){
-						pointHead.y += 1;
-   					}else if(oValues >= 202.5 && oValues < 247.5){
-						pointHead.y += 1;
-						pointHead.x -= 1;
-   					}else if(oValues >= 247.5 && oValues < 292.5){
-						pointHead.x -= 1;
-        			}else if(oValues >= 292.5 && oValues < 337.5){
-						pointHead.y -= 1;
-						pointHead.x -= 1;
-        			}
-        	
-					float angle = (float) ( VectorUtils.angleBetween(pointUser, pointHead, pointNext) * 180 / Math.PI);
-				
-					mv.setUserPath(myList);
-					
-					// Check distance from destination
-					if(distance < 1f){
-						value += "Destination Reached!\n";
-        			}else if(Math.abs(angle) > 25){
-        				if(angle > 0)
-        					value += String.format("Turn right %.2f degrees\n", angle);
-        				else
-        					value += String.format("Turn left %.2f degrees\n", Math.abs(angle));
-					}else{
-						value += "Walk forward\n";
-					}
-
-					output.setText(value);
-        		}
-        	}
-        }
-    	
     	class Position implements PositionListener
     	{	
-    		public Position(){
-    			pointOrigin = pointDest = new PointF(0,0);
-    		}
-    		
 			@Override
 			public void originChanged(MapView source, PointF loc) {
 				//Set origin point
 				source.setUserPoint(loc);
-				pointOrigin = loc;
-				stepCount = stepCountN = stepCountNE = stepCountE = stepCountSE = 0;
-                displacementN = displacementE = 0.0f;
+				processor.setOrigin(loc);
 			}
 
 			@Override
 			public void destinationChanged(MapView source, PointF dest) {
 				//Set destination point
 				source.setDestinationPoint(dest);
-				pointDest = dest;
+				processor.setDestination(dest);
 			}
     	}
 	}
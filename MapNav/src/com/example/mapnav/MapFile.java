@@ -0,0 +1,179 @@
+/*
+ * Copyright MapNav contributors 2026
+ *
+ *
+    This file is part of Mapper.
+
+    Mapper is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Mapper is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with Mapper.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+
+package com.example.mapnav;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import android.graphics.PointF;
+
+/**
+ * Reads and writes maps compiled to a binary file, so that they can be loaded without parsing the SVG again.
+ *
+ * The file is little endian and holds, in order:
+ * <ul>
+ * <li>a header: MAGIC, VERSION, the length and modification time of the SVG it was compiled from,
+ * the SVG's width and height, its scale, and the tolerance the walls were simplified with;</li>
+ * <li>the walls, as NavigationalMap.write lays them out: the number of paths and vertices, the index
+ * of each path's first vertex, then every vertex's x and y;</li>
+ * <li>optionally, the grid over the walls, as SegmentGrid.write lays it out.</li>
+ * </ul>
+ * Files are memory mapped and read with bulk copies into the map's arrays.
+ */
+class MapFile
+{
+    // "MNAV"
+    static final int MAGIC = 0x564E414D;
+    // Bump whenever the layout, or the geometry the loader produces from an SVG, changes.
+    static final int VERSION = 3;
+
+    private static final int HEADER_SIZE = 4 * 2 + 8 * 2 + 4 * 5;
+
+    // prevent construction; static methods only.
+    private MapFile() {}
+
+    /**
+     * Compiles a map to a file.
+     * @param file the file to write
+     * @param source the SVG the map was loaded from
+     * @param maxCoord the width and height of the SVG
+     * @param scale the scale the SVG's coordinates were converted with
+     * @param simplifyTolerance the tolerance the map was simplified with, or a negative number if it was not
+     * @param withIndex whether to store the grid over the walls too, so it need not be built when the file is read
+     */
+    static void write(File file, File source, NavigationalMap map, PointF maxCoord, PointF scale,
+            float simplifyTolerance, boolean withIndex) throws IOException
+    {
+        ByteBuffer out = ByteBuffer.allocate(HEADER_SIZE + map.byteSize(withIndex)).order(ByteOrder.LITTLE_ENDIAN);
+        out.putInt(MAGIC).putInt(VERSION);
+        out.putLong(source.length()).putLong(source.lastModified());
+        out.putFloat(maxCoord.x).putFloat(maxCoord.y).putFloat(scale.x).putFloat(scale.y);
+        out.putFloat(simplifyTolerance);
+        map.write(out, withIndex);
+        out.flip();
+
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            FileChannel channel = raf.getChannel();
+            while(out.hasRemaining())
+                channel.write(out);
+            raf.setLength(channel.position());
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Reads a compiled map, if it is up to date.
+     * @param file the compiled file
+     * @param source the SVG the map should have been compiled from
+     * @param simplifyTolerance the tolerance the map should have been simplified with, or a negative number
+     * @return the map, or null if the file is missing, unreadable, or was not compiled 
+     * from the current version of source with the same simplification
+     */
+    static NavigationalMap read(File file, File source, float simplifyTolerance)
+    {
+        if(!file.isFile())
+            return null;
+
+        FileInputStream in = null;
+        try {
+            in = new FileInputStream(file);
+            FileChannel channel = in.getChannel();
+            MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            buf.order(ByteOrder.LITTLE_ENDIAN);
+
+            if(buf.getInt() != MAGIC || buf.getInt() != VERSION ||
+                    buf.getLong() != source.length() || buf.getLong() != source.lastModified())
+                return null;
+            // size and scale; not needed to rebuild the map
+            buf.position(buf.position() + 4 * 4);
+            if(Float.compare(buf.getFloat(), simplifyTolerance) != 0)
+                return null;
+
+            return NavigationalMap.read(buf);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        } catch (BufferUnderflowException e) {
+            // truncated; compile it again
+            return null;
+        } finally {
+            if(in != null) {
+                try {
+                    in.close();
+                } catch (IOException e) {}
+            }
+        }
+    }
+
+    static void putInts(ByteBuffer out, int[] values)
+    {
+        putInts(out, values, values.length);
+    }
+
+    static void putInts(ByteBuffer out, int[] values, int count)
+    {
+        out.asIntBuffer().put(values, 0, count);
+        out.position(out.position() + 4 * count);
+    }
+
+    static void putFloats(ByteBuffer out, float[] values)
+    {
+        putFloats(out, values, values.length);
+    }
+
+    static void putFloats(ByteBuffer out, float[] values, int count)
+    {
+        out.asFloatBuffer().put(values, 0, count);
+        out.position(out.position() + 4 * count);
+    }
+
+    static int[] getInts(ByteBuffer in, int count)
+    {
+        if(count < 0 || count > in.remaining() / 4)
+            throw new BufferUnderflowException();
+        int[] ret = new int[count];
+        in.asIntBuffer().get(ret);
+        in.position(in.position() + 4 * count);
+        return ret;
+    }
+
+    static float[] getFloats(ByteBuffer in, int count)
+    {
+        if(count < 0 || count > in.remaining() / 4)
+            throw new BufferUnderflowException();
+        float[] ret = new float[count];
+        in.asFloatBuffer().get(ret);
+        in.position(in.position() + 4 * count);
+        return ret;
+    }
+}
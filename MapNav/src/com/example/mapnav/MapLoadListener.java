@@ -0,0 +1,52 @@
+/*
+ * Copyright MapNav contributors 2026
+ *
+ *
+    This file is part of Mapper.
+
+    Mapper is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Mapper is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with Mapper.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+
+package com.example.mapnav;
+
+/**
+ * Implement this interface to follow a map being loaded by MapLoader.loadMapAsync.
+ * 
+ * Every method is called on the thread that started the load, which must have a Looper
+ * (the UI thread does).
+ */
+public interface MapLoadListener 
+{
+    /**
+     * Called from time to time while the map is read, as more of its walls become available.
+     * @param partial The map as far as it has been read. The same object every time; it keeps
+     * filling in after this returns, so it can be handed to MapView.setMap to draw walls as they arrive.
+     * @param progress How much of the file has been read, from 0 to 1.
+     */
+    public void mapProgress(NavigationalMap partial, float progress);
+    /**
+     * Called once the whole map has been read.
+     * @param map The finished map.
+     * @param elapsedMillis How long loading took, in milliseconds.
+     */
+    public void mapLoaded(NavigationalMap map, long elapsedMillis);
+    /**
+     * Called instead of mapLoaded if the map could not be loaded.
+     * @param e What went wrong.
+     */
+    public void mapLoadFailed(Exception e);
+}
@@ -22,23 +22,35 @@
 
 package com.example.mapnav;
 
+import java.io.BufferedInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.FilenameFilter;
+import java.io.FilterInputStream;
 import java.io.IOException;
-import java.security.InvalidParameterException;
-import java.util.ArrayList;
+import java.io.InputStream;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
-import org.w3c.dom.Node;
 import org.w3c.dom.NodeList;
+import org.xml.sax.Attributes;
 import org.xml.sax.SAXException;
+import org.xml.sax.helpers.DefaultHandler;
 
 import android.graphics.PointF;
+import android.os.Handler;
+import android.util.Log;
 
 /**
  * Loads a map from SVG files and returns a corresponding NavigationalMap object.
@@ -51,21 +63,151 @@ public class MapLoader
     private MapLoader() {}  
 
     private final static float DEFAULT_SCALE = 0.05f;
+    // How far (in meters) the straight pieces curved walls are replaced by may stray from the curve.
+    private final static float CURVE_TOLERANCE = 0.01f;
+    // Compiled maps are kept next to their SVG, with this added to the name.
+    private final static String COMPILED_SUFFIX = ".nav";
     private static DocumentBuilderFactory docBuildFactory = DocumentBuilderFactory.newInstance();
     private static DocumentBuilder docBuilder = null;
+    private static SAXParserFactory saxParserFactory = SAXParserFactory.newInstance();
+    private static SAXParser saxParser = null;
+    
+    // How often loadMapAsync reports progress, in milliseconds.
+    private final static long PROGRESS_INTERVAL = 100;
+    private static ExecutorService loadExecutor;
+    
+    private final static String TAG = "MapLoader";
+    // How far simplification may move a wall (in meters), or -1 to load walls as they are drawn.
+    private static float simplifyTolerance = -1;
+    
+    /**
+     * Sets whether, and how much, maps are simplified once they are loaded (see MapSimplifier).
+     * Simplification merges walls that were drawn in many straight pieces, drops walls of zero length,
+     * and then removes vertices that move no wall by more than the tolerance.
+     * @param tolerance how far a wall may move (in meters); 0 to only remove walls that change nothing, 
+     * or a negative number to not simplify at all, which is the default
+     */
+    public static synchronized void setSimplifyTolerance(float tolerance)
+    {
+        simplifyTolerance = tolerance < 0 ? -1 : tolerance;
+    }
     
     /**
      * Create a Pedometer map out of the provided SVG file.
+     * 
+     * The first time a map is loaded, it is read in a single streaming pass and compiled to a 
+     * binary file next to it (see MapFile), along with the grid NavigationalMap queries use. 
+     * Later loads memory map the compiled file instead of parsing the SVG, until the SVG changes.
      * @param dir pass the return from the method getExternalFilesDir(null) to this parameter
      * @param filename The filename of the map to load
      * @return a PedometerMap representing the map file that was loaded
+     * @throws RuntimeException if the SVG can not be read in full, for instance because it is truncated
      */
     public static NavigationalMap loadMap(File dir, final String filename)
     {
-        NavigationalMap pedMap = new NavigationalMap();
+        return loadCompiled(dir, filename, null);
+    }
+    
+    /**
+     * Loads a map in the background, the same way loadMap(dir, filename) does.
+     * 
+     * While an SVG is parsed, the listener is regularly given the map as far as it has been read, 
+     * so walls can be drawn as they arrive. Maps read from their compiled file arrive all at once.
+     * @param dir pass the return from the method getExternalFilesDir(null) to this parameter
+     * @param filename The filename of the map to load
+     * @param listener Told about progress, and when the map is loaded or fails to load, on the thread 
+     * that called this method, which must have a Looper. May be null.
+     * @return A future for the map. Its get() throws the exception that stopped the load, if any.
+     */
+    public static Future<NavigationalMap> loadMapAsync(final File dir, final String filename, final MapLoadListener listener)
+    {
+        final Handler handler = listener == null ? null : new Handler();
         
-        if (dir == null)
-            throw new NullPointerException("getExternalFilesDir() returned null: did you add WRITE_PERMISSION?");
+        return getLoadExecutor().submit(new Callable<NavigationalMap>() {
+            public NavigationalMap call() {
+                long start = System.nanoTime();
+                try {
+                    final NavigationalMap map = loadCompiled(dir, filename, 
+                            listener == null ? null : new ProgressReporter(listener, handler));
+                    final long elapsed = (System.nanoTime() - start) / 1000000;
+                    if(listener != null) {
+                        handler.post(new Runnable() {
+                            public void run() {
+                                listener.mapLoaded(map, elapsed);
+                            }
+                        });
+                    }
+                    return map;
+                } catch (final RuntimeException e) {
+                    if(listener != null) {
+                        handler.post(new Runnable() {
+                            public void run() {
+                                listener.mapLoadFailed(e);
+                            }
+                        });
+                    }
+                    throw e;
+                }
+            }
+        });
+    }
+    
+    private static synchronized ExecutorService getLoadExecutor()
+    {
+        if(loadExecutor == null) {
+            loadExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "MapLoader");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return loadExecutor;
+    }
+    
+    /**
+     * Loads a map from its compiled file, or parses and compiles it if the compiled file is out of date.
+     * Synchronized, as the parsers are shared.
+     * @param progress told about each path parsed; may be null
+     */
+    private static synchronized NavigationalMap loadCompiled(File dir, String filename, ProgressReporter progress)
+    {
+        File source = findMap(dir, filename);
+        File compiled = new File(dir, filename + COMPILED_SUFFIX);
+        
+        NavigationalMap pedMap = MapFile.read(compiled, source, simplifyTolerance);
+        if(pedMap != null)
+            return pedMap;
+        
+        SvgHandler svg = parseStreaming(source, progress);
+        pedMap = simplify(svg.map);
+        try {
+            MapFile.write(compiled, source, pedMap, svg.fileMaxCoord, svg.fileScale, simplifyTolerance, true);
+        } catch (IOException e) {
+            // the map is still usable; it will be parsed again next time
+            e.printStackTrace();
+        }
+        return pedMap;
+    }
+    
+    /**
+     * Create a Pedometer map out of the provided SVG file.
+     * @param dir pass the return from the method getExternalFilesDir(null) to this parameter
+     * @param filename The filename of the map to load
+     * @param streaming true to read the file with a SAX parser, adding each path to the map as it is read, 
+     * so that only one path is held in memory at a time; false to read the whole file into a DOM tree first. 
+     * Both produce the same map.
+     * @return a PedometerMap representing the map file that was loaded
+     * @throws RuntimeException if streaming and the SVG can not be read in full
+     */
+    public static synchronized NavigationalMap loadMap(File dir, final String filename, boolean streaming)
+    {
+        File map = findMap(dir, filename);
+        if(streaming)
+            return simplify(parseStreaming(map, null).map);
+        
+        NavigationalMap pedMap = new NavigationalMap();
         
         if(docBuilder == null) {
             try {
@@ -74,15 +216,6 @@ public class MapLoader
                 e.printStackTrace();
             }
         }
-                
-        File[] maps = dir.listFiles(new FilenameFilter(){
-            public boolean accept(File dir, String name) {
-                return name.equals(filename);
-            }
-        });
-        if (maps.length == 0)
-            throw new RuntimeException("no maps in map directory");
-        File map = maps[0];
         
         Document doc = null;
         
@@ -97,173 +230,218 @@ public class MapLoader
         // Process metadata
         Element svg = (Element) doc.getElementsByTagName("svg").item(0);
 
-        PointF fileMaxCoord = new PointF(Float.parseFloat(svg.getAttribute("width")),
-                                         Float.parseFloat(svg.getAttribute("height")));
-    
-        float scaleX = 0.0f;
-        float scaleY = 0.0f;
-        try {
-            scaleX = Float.parseFloat(svg.getAttribute("xScale"));
-            scaleY = Float.parseFloat(svg.getAttribute("yScale"));
-        } catch (NumberFormatException e) {}
-        
-        PointF fileScale;
-        if (scaleX == 0 || scaleY == 0){
-            fileScale = new PointF(DEFAULT_SCALE, DEFAULT_SCALE);
-        }else{
-            fileScale = new PointF(scaleX, scaleY);
-        }
+        PointF fileMaxCoord = parseMaxCoord(svg.getAttribute("width"), svg.getAttribute("height"));
+        PointF fileScale = parseScale(svg.getAttribute("xScale"), svg.getAttribute("yScale"));
         
         // process paths
+        SvgPathParser parser = new SvgPathParser(CURVE_TOLERANCE);
         NodeList filePaths = doc.getElementsByTagName("path");
         
         for(int i = 0; i < filePaths.getLength(); i++) {
-            pedMap.addPath(parseConvertPath(filePaths.item(i), fileMaxCoord, fileScale));
+            Element path = (Element) filePaths.item(i);
+            parser.parse(path.getAttribute("d"), fileScale.x, fileScale.y, pedMap);
         }
-        return pedMap;
+        return simplify(pedMap);
     }
     
-    
-    private static PointF makePoint(String s1, String s2)
+    /**
+     * Simplifies a freshly loaded map with the current tolerance, if simplification is on.
+     */
+    private static NavigationalMap simplify(NavigationalMap map)
     {
-        return new PointF(
-                Float.parseFloat(s1),
-                Float.parseFloat(s2)
-                ) ;
+        if(simplifyTolerance < 0)
+            return map;
+        int before = map.getSegmentCount();
+        NavigationalMap ret = map.simplify(simplifyTolerance);
+        int after = ret.getSegmentCount();
+        Log.i(TAG, String.format("Simplified map: removed %d of %d segments, %d left", before - after, before, after));
+        return ret;
     }
     
-    private static PointF makePointRelative(PointF p, String s1, String s2)
+    private static File findMap(File dir, final String filename)
     {
-        return new PointF(
-                p.x + Float.parseFloat(s1),
-                p.y + Float.parseFloat(s2)
-                ) ;
+        if (dir == null)
+            throw new NullPointerException("getExternalFilesDir() returned null: did you add WRITE_PERMISSION?");
+                
+        File[] maps = dir.listFiles(new FilenameFilter(){
+            public boolean accept(File dir, String name) {
+                return name.equals(filename);
+            }
+        });
+        if (maps.length == 0)
+            throw new RuntimeException("no maps in map directory");
+        return maps[0];
     }
     
-    private static ArrayList<PointF> parseConvertPath(Node node, PointF fileMaxCoord, PointF fileScale)
+    /**
+     * Reads the SVG elements of a map as a SAX parser reports them. The metadata comes from the 
+     * first svg element, and every path element is converted and added to the map as soon as it is read.
+     */
+    private static class SvgHandler extends DefaultHandler
     {
-        Element elem = (Element) node;
-        ArrayList<PointF> ret = new ArrayList<PointF>();
+        final NavigationalMap map = new NavigationalMap();
+        final SvgPathParser parser = new SvgPathParser(CURVE_TOLERANCE);
+        final ProgressReporter progress;
+        PointF fileMaxCoord, fileScale;
+        // whether the whole file was read
+        boolean complete;
+        // what stopped the parser, if anything did
+        Exception error;
         
-        String d = elem.getAttribute("d");
+        SvgHandler(ProgressReporter progress) {
+            this.progress = progress;
+        }
         
-        String[] pathString = d.split("[ ,]");
-        PointF refPoint = new PointF();
-        char defaultCommand = 'l';
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes attributes) {
+            if(qName.equals("svg") && fileScale == null) {
+                fileMaxCoord = parseMaxCoord(getAttribute(attributes, "width"), getAttribute(attributes, "height"));
+                fileScale = parseScale(getAttribute(attributes, "xScale"), getAttribute(attributes, "yScale"));
+            } else if(qName.equals("path")) {
+                parser.parse(getAttribute(attributes, "d"), fileScale.x, fileScale.y, map);
+                if(progress != null)
+                    progress.pathAdded(map);
+            }
+        }
         
-        try{
-            for(int i = 0; i < pathString.length; i++){
-            PointF newPoint;
+        @Override
+        public void endDocument() {
+            complete = fileScale != null;
+        }
+    }
+    
+    /**
+     * Passes the map being parsed to a MapLoadListener, on the listener's thread, 
+     * at most once every PROGRESS_INTERVAL.
+     */
+    private static class ProgressReporter
+    {
+        final MapLoadListener listener;
+        final Handler handler;
+        CountingInputStream in;
+        long length;
+        long lastReport = System.nanoTime();
+        
+        ProgressReporter(MapLoadListener listener, Handler handler) {
+            this.listener = listener;
+            this.handler = handler;
+        }
+        
+        void pathAdded(final NavigationalMap map) {
+            long now = System.nanoTime();
+            if(now - lastReport < PROGRESS_INTERVAL * 1000000)
+                return;
+            lastReport = now;
             
-            if("cCsSqQtTaAmMlLzZ-1234567890".indexOf(pathString[i].charAt(0)) == -1){
-                throw new InvalidParameterException("A character that was to be interpreted as a command character " +
-                        "is not known by the Map loader. Check your path Data. The unknown character was: <" + pathString[i].charAt(0) +">"  +
-                        "in the path {" + d + "}");
-            }
-                
-            // I don't handle bezier curves, so skip all the extra components of the bezier commands
-            switch(pathString[i].charAt(0)){
-            case 'c':
-                i += 4;
-                pathString[i] = "l";
-                break;
-            case 'C':
-                pathString[i] = "L";
-                i+= 4;
-                break;
-            case 's':
-                i += 2;
-                pathString[i] = "l";
-                break;
-            case 'S':
-                i += 2;
-                pathString[i] = "L";
-                break;
-            case 'q':
-                i += 2;
-                pathString[i] = "l";
-                break;
-            case 'Q':
-                i += 2;
-                pathString[i] = "L";
-                break;
-            case 't':
-                pathString[i] = "l";
-                break;
-            case 'T':
-                pathString[i] = "L";
-                break;
-            case 'a':
-                i += 5;
-                pathString[i] = "l";
-                break;
-            case 'A':
-                i += 5;
-                pathString[i] = "L";
-                break;
-            }
-                        
-            // read control character
-            switch(pathString[i].charAt(0)){
-            case 'M':
-                newPoint = makePoint(pathString[i+1], pathString[i+2]);
-                i += 2;
-                defaultCommand = 'L';
-                break;
-            case 'm':
-            case 'l':
-                newPoint = makePointRelative(refPoint, pathString[i+1], pathString[i+2]);
-                i += 2;
-                defaultCommand = 'l';
-                break;
-            case 'L':
-                newPoint = makePoint(pathString[i+1], pathString[i+2]);
-                i += 2;
-                defaultCommand = 'L';
-                break;
-            case 'z':
-            case 'Z':
-                newPoint = new PointF();
-                newPoint.set(ret.get(0));
-                break;
-            //If there is no control character, we use the last one.
-            default:
-                switch(defaultCommand){
-                case 'l':
-                default:
-                    newPoint = makePointRelative(refPoint, pathString[i], pathString[i+1]);
-                    i += 1;
-                    break;
-                case 'L':
-                    newPoint = makePoint(pathString[i], pathString[i+1]);
-                    i += 1;
-                    break;
+            final float progress = length > 0 ? Math.min(1, (float) in.count / length) : 0;
+            handler.post(new Runnable() {
+                public void run() {
+                    listener.mapProgress(map, progress);
                 }
-            }
-            
-            ret.add(newPoint);
-            refPoint.set(newPoint);                                 
-            }
-        } catch (IndexOutOfBoundsException e) {
-            throw new IndexOutOfBoundsException("There were not enough elements to process all the commands. "+
-                    "Either the path contains an unknown command or one of the commands has too few parameters. " +
-                    "The path being processed was {" + d +"}");
-        }catch(NumberFormatException e) {
-            throw new NumberFormatException("The map loader encountered a problem parsing path data. This likely means that you have an " +
-                    "unknown control character. Check your paths. " +
-                    "The path being processed was {" + d +"}");
+            });
+        }
+    }
+    
+    /**
+     * Counts the bytes read through it.
+     */
+    private static class CountingInputStream extends FilterInputStream
+    {
+        volatile long count;
+        
+        CountingInputStream(InputStream in) {
+            super(in);
         }
-        for(PointF p : ret)
-            convertCoord(p, fileScale);
         
-        return ret;
+        @Override
+        public int read() throws IOException {
+            int ret = super.read();
+            if(ret != -1)
+                count++;
+            return ret;
+        }
+        
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int ret = super.read(b, off, len);
+            if(ret > 0)
+                count += ret;
+            return ret;
+        }
+        
+        @Override
+        public long skip(long n) throws IOException {
+            long ret = super.skip(n);
+            count += ret;
+            return ret;
+        }
     }
-
+    
     /**
-     * Converts the coordinate to real-world space
-     * @param coord
+     * Reads the map with a SAX parser, adding each path to the map as soon as it is read.
+     * @param progress told about each path parsed; may be null
+     * @throws RuntimeException if the file could not be read in full; the partly read map is not returned, 
+     * so it can never be mistaken for the whole one
      */
-    private static void convertCoord(PointF coord, PointF fileScale) {
-        coord.set(coord.x * fileScale.x, coord.y * fileScale.y);
+    private static SvgHandler parseStreaming(File map, ProgressReporter progress)
+    {
+        if(saxParser == null) {
+            try {
+                saxParser = saxParserFactory.newSAXParser();
+            } catch (ParserConfigurationException e) {
+                e.printStackTrace();
+            } catch (SAXException e) {
+                e.printStackTrace();
+            }
+        }
+        
+        SvgHandler handler = new SvgHandler(progress);
+        try {
+            CountingInputStream in = new CountingInputStream(new BufferedInputStream(new FileInputStream(map)));
+            if(progress != null) {
+                progress.in = in;
+                progress.length = map.length();
+            }
+            try {
+                saxParser.parse(in, handler);
+            } finally {
+                in.close();
+            }
+        } catch (SAXException e) {
+            handler.error = e;
+        } catch (IOException e) {
+            handler.error = e;
+        }
+        if(!handler.complete)
+            throw new RuntimeException("Could not read map " + map, handler.error);
+        return handler;
+    }
+    
+    // missing attributes read as empty strings, as Element.getAttribute returns them
+    private static String getAttribute(Attributes attributes, String name)
+    {
+        String value = attributes.getValue(name);
+        return value == null ? "" : value;
+    }
+    
+    private static PointF parseMaxCoord(String width, String height)
+    {
+        return new PointF(Float.parseFloat(width), Float.parseFloat(height));
+    }
+    
+    private static PointF parseScale(String xScale, String yScale)
+    {
+        float scaleX = 0.0f;
+        float scaleY = 0.0f;
+        try {
+            scaleX = Float.parseFloat(xScale);
+            scaleY = Float.parseFloat(yScale);
+        } catch (NumberFormatException e) {}
+        
+        if (scaleX == 0 || scaleY == 0){
+            return new PointF(DEFAULT_SCALE, DEFAULT_SCALE);
+        }else{
+            return new PointF(scaleX, scaleY);
+        }
     }
 }
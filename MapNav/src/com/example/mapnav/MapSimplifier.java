@@ -0,0 +1,293 @@
+/*
+ * Copyright MapNav contributors 2026
+ *
+ *
+    This file is part of Mapper.
+
+    Mapper is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Mapper is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with Mapper.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+
+package com.example.mapnav;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reduces the number of segments in a map without changing its shape by more than a tolerance.
+ *
+ * Drawing programs tend to split one straight wall into many short pieces, sometimes in separate
+ * paths. This drops segments of zero length, joins paths that continue each other in a straight
+ * line, removes vertices that lie on the straight line between their neighbours, and then applies
+ * Douglas-Peucker to what is left.
+ */
+class MapSimplifier
+{
+    // Points closer than this are the same point, and a vertex closer than this to the line between
+    // its neighbours is on it (in meters). The same tolerance VectorUtils uses.
+    private static final float EPSILON = 1E-4f;
+
+    // prevent construction; static methods only.
+    private MapSimplifier() {}
+
+    /**
+     * Simplifies a set of paths.
+     * @param coords the x and y coordinates of every vertex, path after path
+     * @param pathStarts the index of the first vertex of each path; pathStarts[pathCount] is the number of vertices
+     * @param pathCount the number of paths
+     * @param tolerance how far (in meters) Douglas-Peucker may move a wall; 0 to only remove
+     * vertices that change nothing
+     * @return a new map holding the simplified paths
+     */
+    static NavigationalMap simplify(float[] coords, int[] pathStarts, int pathCount, float tolerance)
+    {
+        // paths without repeated vertices, as x, y pairs
+        List<float[]> paths = new ArrayList<float[]>(pathCount);
+        for(int p = 0; p < pathCount; p++){
+            float[] path = dropRepeats(coords, pathStarts[p], pathStarts[p + 1]);
+            if(path.length >= 4)
+                paths.add(path);
+        }
+
+        NavigationalMap ret = new NavigationalMap();
+        float[] out = new float[64];
+        for(float[] path : join(paths)){
+            if(out.length < path.length)
+                out = new float[path.length];
+            int count = removeCollinear(path, out);
+            if(tolerance > 0)
+                count = douglasPeucker(out, count, tolerance);
+            if(count >= 2)
+                ret.addPath(out, 0, count);
+        }
+        return ret;
+    }
+
+    private static float[] dropRepeats(float[] coords, int first, int end)
+    {
+        float[] ret = new float[2 * (end - first)];
+        int count = 0;
+        for(int v = first; v < end; v++){
+            float x = coords[2 * v], y = coords[2 * v + 1];
+            if(count > 0 && VectorUtils.distance(ret[2 * count - 2], ret[2 * count - 1], x, y) <= EPSILON)
+                continue;
+            ret[2 * count] = x;
+            ret[2 * count + 1] = y;
+            count++;
+        }
+        float[] trimmed = new float[2 * count];
+        System.arraycopy(ret, 0, trimmed, 0, 2 * count);
+        return trimmed;
+    }
+
+    /**
+     * Joins paths end to end where exactly two path ends meet and the walls continue in a straight line
+     * through the joint. Paths are reversed as needed.
+     */
+    private static List<float[]> join(List<float[]> paths)
+    {
+        int n = paths.size();
+        // ends[2 * p] is the start of path p, ends[2 * p + 1] its end
+        Map<Long, List<Integer>> ends = new HashMap<Long, List<Integer>>();
+        for(int p = 0; p < n; p++){
+            float[] path = paths.get(p);
+            addEnd(ends, path[0], path[1], 2 * p);
+            addEnd(ends, path[path.length - 2], path[path.length - 1], 2 * p + 1);
+        }
+
+        // the path end each path end is joined to, or -1
+        int[] partner = new int[2 * n];
+        for(int e = 0; e < 2 * n; e++)
+            partner[e] = -1;
+        for(List<Integer> at : ends.values()){
+            if(at.size() != 2)
+                continue;
+            int a = at.get(0), b = at.get(1);
+            if(a / 2 != b / 2 && continues(paths, a, b)) {
+                partner[a] = b;
+                partner[b] = a;
+            }
+        }
+
+        List<float[]> ret = new ArrayList<float[]>();
+        boolean[] used = new boolean[n];
+        for(int p = 0; p < n; p++){
+            if(used[p] || partner[2 * p] != -1 && partner[2 * p + 1] != -1)
+                continue;
+            // p is the first path of a chain: walk away from its unjoined end
+            ret.add(chain(paths, partner, used, partner[2 * p] == -1 ? 2 * p : 2 * p + 1));
+        }
+        // what is left are loops with every joint straight; they can only be degenerate, so keep them whole
+        for(int p = 0; p < n; p++){
+            if(!used[p])
+                ret.add(paths.get(p));
+        }
+        return ret;
+    }
+
+    private static void addEnd(Map<Long, List<Integer>> ends, float x, float y, int end)
+    {
+        Long key = ((long) Float.floatToIntBits(x + 0.0f) << 32) | (Float.floatToIntBits(y + 0.0f) & 0xffffffffL);
+        List<Integer> at = ends.get(key);
+        if(at == null) {
+            at = new ArrayList<Integer>(2);
+            ends.put(key, at);
+        }
+        at.add(end);
+    }
+
+    /**
+     * Whether the walls at two path ends continue each other in a straight line through the point they share.
+     */
+    private static boolean continues(List<float[]> paths, int a, int b)
+    {
+        float[] pa = paths.get(a / 2), pb = paths.get(b / 2);
+        // the vertex next to each end
+        int ia = a % 2 == 0 ? 2 : pa.length - 4;
+        int ib = b % 2 == 0 ? 2 : pb.length - 4;
+        int ja = a % 2 == 0 ? 0 : pa.length - 2;
+        return isBetween(pa[ia], pa[ia + 1], pa[ja], pa[ja + 1], pb[ib], pb[ib + 1]);
+    }
+
+    /**
+     * Concatenates the chain of joined paths that starts at path end `start`.
+     */
+    private static float[] chain(List<float[]> paths, int[] partner, boolean[] used, int start)
+    {
+        float[] ret = new float[0];
+        int end = start;
+        while(end != -1) {
+            int p = end / 2;
+            used[p] = true;
+            float[] path = paths.get(p);
+            boolean reversed = end % 2 == 1;
+
+            // the first vertex of every path after the first repeats the last one added
+            int skip = ret.length == 0 ? 0 : 1;
+            float[] grown = new float[ret.length + path.length - 2 * skip];
+            System.arraycopy(ret, 0, grown, 0, ret.length);
+            int count = path.length / 2;
+            for(int k = skip; k < count; k++){
+                int v = reversed ? count - 1 - k : k;
+                grown[ret.length + 2 * (k - skip)] = path[2 * v];
+                grown[ret.length + 2 * (k - skip) + 1] = path[2 * v + 1];
+            }
+            ret = grown;
+
+            // continue from the other end of this path
+            int other = reversed ? 2 * p : 2 * p + 1;
+            end = partner[other];
+            if(end != -1 && used[end / 2])
+                break;
+        }
+        return ret;
+    }
+
+    /**
+     * Copies path into out, leaving out every vertex that lies on the straight line between its neighbours.
+     * @return the number of vertices copied
+     */
+    private static int removeCollinear(float[] path, float[] out)
+    {
+        int count = path.length / 2;
+        int kept = 0;
+        for(int v = 0; v < count; v++){
+            float x = path[2 * v], y = path[2 * v + 1];
+            if(kept > 0 && v < count - 1 &&
+                    isBetween(out[2 * kept - 2], out[2 * kept - 1], x, y, path[2 * v + 2], path[2 * v + 3]))
+                continue;
+            out[2 * kept] = x;
+            out[2 * kept + 1] = y;
+            kept++;
+        }
+        return kept;
+    }
+
+    /**
+     * Whether (x, y) lies on the segment between (ax, ay) and (bx, by), within EPSILON.
+     */
+    private static boolean isBetween(float ax, float ay, float x, float y, float bx, float by)
+    {
+        float dx = bx - ax, dy = by - ay;
+        float length = (float) Math.sqrt(dx * dx + dy * dy);
+        if(length <= EPSILON)
+            return false;
+        float along = ((x - ax) * dx + (y - ay) * dy) / length;
+        float across = Math.abs((x - ax) * dy - (y - ay) * dx) / length;
+        return across <= EPSILON && along > 0 && along < length;
+    }
+
+    /**
+     * Douglas-Peucker, in place: keeps the fewest vertices such that no removed vertex is further than
+     * tolerance from the simplified path. The first and last vertices are always kept.
+     * @return the number of vertices left at the start of xy
+     */
+    private static int douglasPeucker(float[] xy, int count, float tolerance)
+    {
+        if(count < 3)
+            return count;
+        boolean[] keep = new boolean[count];
+        keep[0] = keep[count - 1] = true;
+
+        // ranges still to split, as pairs of vertex indices; no recursion, so long paths are fine
+        int[] stack = new int[2 * count];
+        int top = 0;
+        stack[top++] = 0;
+        stack[top++] = count - 1;
+        while(top > 0) {
+            int last = stack[--top], first = stack[--top];
+            float dx = xy[2 * last] - xy[2 * first], dy = xy[2 * last + 1] - xy[2 * first + 1];
+            float lengthSquare = dx * dx + dy * dy;
+
+            int worst = -1;
+            float worstDistance = tolerance;
+            for(int v = first + 1; v < last; v++){
+                float distance = distanceToSegment(xy[2 * v], xy[2 * v + 1], xy[2 * first], xy[2 * first + 1], dx, dy, lengthSquare);
+                if(distance > worstDistance) {
+                    worstDistance = distance;
+                    worst = v;
+                }
+            }
+            if(worst != -1) {
+                keep[worst] = true;
+                stack[top++] = first;
+                stack[top++] = worst;
+                stack[top++] = worst;
+                stack[top++] = last;
+            }
+        }
+
+        int kept = 0;
+        for(int v = 0; v < count; v++){
+            if(keep[v]) {
+                xy[2 * kept] = xy[2 * v];
+                xy[2 * kept + 1] = xy[2 * v + 1];
+                kept++;
+            }
+        }
+        return kept;
+    }
+
+    private static float distanceToSegment(float x, float y, float x0, float y0, float dx, float dy, float lengthSquare)
+    {
+        float t = 0;
+        if(lengthSquare > 0)
+            t = Math.max(0, Math.min(1, ((x - x0) * dx + (y - y0) * dy) / lengthSquare));
+        return VectorUtils.distance(x, y, x0 + t * dx, y0 + t * dy);
+    }
+}
@@ -23,12 +23,20 @@
 package com.example.mapnav;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
+import android.annotation.TargetApi;
 import android.content.Context;
+import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Paint;
 import android.graphics.PointF;
+import android.graphics.Rect;
+import android.os.Build;
 import android.os.Handler;
 import android.view.ContextMenu;
 import android.view.ContextMenu.ContextMenuInfo;
@@ -36,12 +44,14 @@ import android.view.GestureDetector;
 import android.view.GestureDetector.SimpleOnGestureListener;
 import android.view.MenuItem;
 import android.view.MotionEvent;
+import android.view.ScaleGestureDetector;
 import android.view.View;
 
 /**
  * Mapper class for getting user input relative to an SVG map loaded by the MapLoader.
  * 
- * The Mapper's coordinate origin is in the top left hand corner.
+ * The Mapper's coordinate origin is in the top left hand corner. The map can be dragged around and
+ * pinched to zoom; only the walls in view are drawn, and zoomed out, a simplified copy of the map is.
  * @author Kirill Morozov
  *
  */
@@ -51,6 +61,7 @@ public class MapView extends View
     private float fieldHeight = 400;
     
     private GestureDetector gestureDetector;
+    private ScaleGestureDetector scaleGestureDetector;
     private Handler handler;
     
     private List<PositionListener> listeners = new ArrayList<PositionListener>();
@@ -85,7 +96,61 @@ public class MapView extends View
     private static final int LABELlED_POINT_COLOR_INDEX = 5;
     
     NavigationalMap map = new NavigationalMap();
+    // The current number of pixels per meter, and the one the view was created with.
     PointF scale;
+    private PointF baseScale;
+    // How far the view can be zoomed, relative to the scale it was created with.
+    private static final float MIN_ZOOM = 0.1f, MAX_ZOOM = 10;
+    // The screen position of the map's origin is (-offsetX, -offsetY), in pixels.
+    private float offsetX, offsetY;
+    
+    // The walls in view, drawn into a bitmap the size of the view so that each frame only copies them.
+    // Drawn again when the map, the colors, the scale, the offset or the view's size change.
+    private Bitmap wallLayer;
+    private Canvas wallCanvas = new Canvas();
+    private boolean wallLayerValid;
+    private float wallLayerScaleX, wallLayerScaleY, wallLayerOffsetX, wallLayerOffsetY;
+    private NavigationalMap wallLayerLevel;
+    private float[] wallLines = new float[0];
+    
+    // Simplified copies of the map, for drawing it zoomed out. levels[k] is simplified with a tolerance 
+    // of LOD_TOLERANCE * LOD_STEP^k meters, and is drawn while that is under LOD_PIXELS pixels. 
+    // Each is built in the background from the one before when first needed; the finest map available 
+    // is drawn until then.
+    private static final float LOD_TOLERANCE = 0.05f, LOD_STEP = 4, LOD_PIXELS = 0.5f;
+    private static final int LOD_LEVELS = 4;
+    private NavigationalMap[] levels = new NavigationalMap[LOD_LEVELS];
+    private boolean[] levelsRequested = new boolean[LOD_LEVELS];
+    // Counts setMap calls, so that levels built from an older map are thrown away.
+    private int mapGeneration;
+    // Whether the map is still being loaded; see setPartialMap.
+    private boolean mapLoading;
+    private static ExecutorService levelExecutor;
+    
+    // Changes are drawn on the next display frame, so that any number of them between frames cost 
+    // one redraw. dirty collects the parts of the view they touched, in pixels, unless the whole 
+    // view is to be redrawn anyway.
+    private static final long FRAME_MILLIS = 16;
+    private final Rect dirty = new Rect();
+    private boolean dirtyAll, redrawScheduled;
+    private final Runnable redraw = new Runnable() {
+        public void run() {
+            redrawScheduled = false;
+            if(dirtyAll)
+                invalidate();
+            else if(!dirty.isEmpty())
+                invalidate(dirty);
+            dirtyAll = false;
+            dirty.setEmpty();
+        }
+    };
+    
+    // The user path's segments, already scaled to pixels, as Canvas.drawLines takes them. 
+    // Rebuilt when the path or the scale changes.
+    private float[] pathLines = new float[0];
+    private int pathLineCount;
+    private boolean pathLinesValid;
+    private float pathLinesScaleX, pathLinesScaleY;
     
     /**
      * Initializes a new mapper object.
@@ -103,12 +168,14 @@ public class MapView extends View
         
         handler = new Handler();
         gestureDetector = new GestureDetector(context, new MapperGestureDetector(this), handler);
+        scaleGestureDetector = new ScaleGestureDetector(context, new MapperScaleGestureDetector());
         
         for(int i = 0; i < defaultColors.length; i++)
             linePaints.add(new Paint());
         setColors(defaultColors);
         
         scale = new PointF(xScale, yScale);     
+        baseScale = new PointF(xScale, yScale);
     }
     
     /**
@@ -139,6 +206,8 @@ public class MapView extends View
     {
         for(int i = 0; i < Math.min(linePaints.size(), colors.length); i++)
             linePaints.get(i).setColor(colors[i]);
+        wallLayerValid = false;
+        redrawAll();
     }
     
     /**
@@ -165,8 +234,7 @@ public class MapView extends View
      */
     public void setUserPoint(PointF point)
     {
-        userPoint.set(point.x, point.y);
-        invalidate();
+        setUserPoint(point.x, point.y);
     }
     
     
@@ -187,8 +255,11 @@ public class MapView extends View
      */
     public void setUserPoint(float x, float y)
     {
+        if(userPoint.x == x && userPoint.y == y)
+            return;
+        redrawUserPoint();
         userPoint.set(x, y);
-        invalidate();
+        redrawUserPoint();
     }
     
     /**
@@ -197,12 +268,31 @@ public class MapView extends View
      */
     public void setUserPath(List<PointF> points)
     {
+        if(isUserPath(points == null ? Collections.<PointF>emptyList() : points))
+            return;
+        redrawUserPath();
         userPath.clear();
         
         if(points != null)
             userPath.addAll(points);
+        pathLinesValid = false;
         
-        invalidate();
+        redrawUserPath();
+    }
+    
+    /**
+     * Whether points are the same, in the same order, as the user path.
+     */
+    private boolean isUserPath(List<PointF> points)
+    {
+        if(points.size() != userPath.size())
+            return false;
+        for(int i = 0; i < points.size(); i++){
+            PointF a = points.get(i), b = userPath.get(i);
+            if(a.x != b.x || a.y != b.y)
+                return false;
+        }
+        return true;
     }
     
     /**
@@ -215,28 +305,29 @@ public class MapView extends View
     {
         LabeledPoint ret = new LabeledPoint(point, label);
         labeledPoints.add(ret);
-        invalidate();
+        redrawMarker(ret.getPoint(), 4, 2, label);
         return ret;
     }
     
     public void removeLabeledPoint(PointF point)
     {
         labeledPoints.remove(point);
-        invalidate();
+        redrawAll();
     }
     
     public void removeAllLabeledPoints()
     {
         labeledPoints.clear();
-        invalidate();
+        redrawAll();
     }
 
     @Override
     public boolean onTouchEvent(MotionEvent event) {
          boolean ret = super.onTouchEvent(event);
-         boolean ret2 = gestureDetector.onTouchEvent(event);
+         boolean ret2 = scaleGestureDetector.onTouchEvent(event);
+         boolean ret3 = gestureDetector.onTouchEvent(event);
          
-         return ret || ret2;
+         return ret || ret2 || ret3;
     }
     
     /*
@@ -258,19 +349,16 @@ public class MapView extends View
     protected void onDraw(Canvas canvas){
         super.onDraw(canvas);
         
-        for(List<PointF> path : map.getPaths()){
-            for(int i = 0; i < path.size() - 1; i++){
-                canvas.drawLine(path.get(i).x * scale.x, path.get(i).y * scale.y, 
-                                path.get(i+1).x * scale.x, path.get(i+1).y * scale.y, 
-                                linePaints.get(LINE_COLOR_INDEX));
-            }
-        }
+        drawWallLayer(canvas);
         
-        for(int i = 0; i < userPath.size() - 1; i++){
-            canvas.drawLine(userPath.get(i).x * scale.x, userPath.get(i).y * scale.y, 
-                            userPath.get(i+1).x * scale.x, userPath.get(i+1).y * scale.y, 
-                            linePaints.get(USER_PATH_COLOR_INDEX));
-        }
+        // the overlays are positioned in map pixels; the offset pans them along with the walls
+        canvas.save();
+        canvas.translate(-offsetX, -offsetY);
+        
+        if(!pathLinesValid || pathLinesScaleX != scale.x || pathLinesScaleY != scale.y)
+            buildPathLines();
+        if(pathLineCount > 0)
+            canvas.drawLines(pathLines, 0, pathLineCount, linePaints.get(USER_PATH_COLOR_INDEX));
         
         for(LabeledPoint lp : labeledPoints){
             PointF p = lp.getPoint(); 
@@ -287,6 +375,245 @@ public class MapView extends View
         canvas.drawCircle(userPoint.x * scale.x, userPoint.y * scale.y, 5, linePaints.get(USER_POINT_COLOR_INDEX));
         canvas.drawText("User", 2.5f + userPoint.x * scale.x, userPoint.y * scale.y, linePaints.get(LINE_COLOR_INDEX));     
         
+        canvas.restore();
+    }
+    
+    /**
+     * Copies the walls onto the canvas, first drawing them into the wall layer if it is out of date.
+     */
+    private void drawWallLayer(Canvas canvas)
+    {
+        int width = getWidth(), height = getHeight();
+        if(width <= 0 || height <= 0)
+            return;
+        
+        if(wallLayer == null || wallLayer.getWidth() != width || wallLayer.getHeight() != height) {
+            if(wallLayer != null)
+                wallLayer.recycle();
+            wallLayer = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            wallCanvas.setBitmap(wallLayer);
+            wallLayerValid = false;
+        }
+        
+        NavigationalMap level = chooseLevel();
+        if(!wallLayerValid || level != wallLayerLevel || wallLayerScaleX != scale.x || wallLayerScaleY != scale.y ||
+                wallLayerOffsetX != offsetX || wallLayerOffsetY != offsetY) {
+            wallLayer.eraseColor(0);
+            
+            // only the walls in view, unless the map is still loading and has no grid to find them with
+            if(wallLines.length < 4 * level.getSegmentCount())
+                wallLines = new float[4 * level.getSegmentCount()];
+            int count = mapLoading ? level.getSegmentLines(scale.x, scale.y, wallLines) :
+                    level.getSegmentLines(offsetX / scale.x, offsetY / scale.y, 
+                    (offsetX + width) / scale.x, (offsetY + height) / scale.y, scale.x, scale.y, wallLines);
+            if(count > 0) {
+                wallCanvas.save();
+                wallCanvas.translate(-offsetX, -offsetY);
+                wallCanvas.drawLines(wallLines, 0, count, linePaints.get(LINE_COLOR_INDEX));
+                wallCanvas.restore();
+            }
+            
+            wallLayerLevel = level;
+            wallLayerScaleX = scale.x;
+            wallLayerScaleY = scale.y;
+            wallLayerOffsetX = offsetX;
+            wallLayerOffsetY = offsetY;
+            wallLayerValid = true;
+        }
+        
+        canvas.drawBitmap(wallLayer, 0, 0, null);
+    }
+    
+    /**
+     * Redraws the whole view on the next frame.
+     */
+    private void redrawAll()
+    {
+        dirtyAll = true;
+        scheduleRedraw();
+    }
+    
+    /**
+     * Redraws a rectangle of the view, in pixels, on the next frame.
+     */
+    private void redraw(float left, float top, float right, float bottom)
+    {
+        // a pixel more all round, for antialiasing
+        dirty.union((int) Math.floor(left) - 1, (int) Math.floor(top) - 1, (int) Math.ceil(right) + 1, (int) Math.ceil(bottom) + 1);
+        scheduleRedraw();
+    }
+    
+    private void scheduleRedraw()
+    {
+        if(redrawScheduled)
+            return;
+        redrawScheduled = true;
+        if(Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN)
+            postOnNextFrame(redraw);
+        else
+            postDelayed(redraw, FRAME_MILLIS);
+    }
+    
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private void postOnNextFrame(Runnable r)
+    {
+        postOnAnimation(r);
+    }
+    
+    /**
+     * Redraws where the user point and its label are drawn.
+     */
+    private void redrawUserPoint()
+    {
+        redrawMarker(userPoint, 5, 2.5f, "User");
+    }
+    
+    /**
+     * Redraws the area a point's circle and label cover, as onDraw draws them.
+     * @param radius the circle's radius, in pixels
+     * @param labelOffset how far right of the point the label starts, in pixels
+     */
+    private void redrawMarker(PointF p, float radius, float labelOffset, String label)
+    {
+        float x = p.x * scale.x - offsetX, y = p.y * scale.y - offsetY;
+        Paint text = linePaints.get(LINE_COLOR_INDEX);
+        float textSize = text.getTextSize();
+        redraw(x - radius, y - Math.max(radius, textSize), 
+                Math.max(x + radius, x + labelOffset + text.measureText(label)), y + Math.max(radius, textSize / 2));
+    }
+    
+    /**
+     * Redraws the bounding box of the user path.
+     */
+    private void redrawUserPath()
+    {
+        if(userPath.isEmpty())
+            return;
+        float minX = Float.POSITIVE_INFINITY, minY = Float.POSITIVE_INFINITY;
+        float maxX = Float.NEGATIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY;
+        for(PointF p : userPath){
+            minX = Math.min(minX, p.x);
+            minY = Math.min(minY, p.y);
+            maxX = Math.max(maxX, p.x);
+            maxY = Math.max(maxY, p.y);
+        }
+        float pad = linePaints.get(USER_PATH_COLOR_INDEX).getStrokeWidth() / 2;
+        redraw(minX * scale.x - offsetX - pad, minY * scale.y - offsetY - pad, 
+                maxX * scale.x - offsetX + pad, maxY * scale.y - offsetY + pad);
+    }
+    
+    /**
+     * Returns the coarsest copy of the map that still looks the same at the current scale, asking for 
+     * the next coarser copy to be built if that one would do but is not ready.
+     */
+    private NavigationalMap chooseLevel()
+    {
+        if(mapLoading)
+            return map;
+        float pixel = LOD_PIXELS / Math.max(scale.x, scale.y);
+        NavigationalMap ret = map;
+        float tolerance = LOD_TOLERANCE;
+        for(int k = 0; k < LOD_LEVELS && tolerance <= pixel; k++){
+            if(levels[k] == null) {
+                if(!levelsRequested[k])
+                    buildLevel(k, ret, tolerance);
+                break;
+            }
+            ret = levels[k];
+            tolerance *= LOD_STEP;
+        }
+        return ret;
+    }
+    
+    /**
+     * Simplifies a map in the background into levels[k], and redraws once it is done.
+     */
+    private void buildLevel(final int k, final NavigationalMap source, final float tolerance)
+    {
+        levelsRequested[k] = true;
+        final int generation = mapGeneration;
+        getLevelExecutor().execute(new Runnable() {
+            public void run() {
+                final NavigationalMap level = source.simplify(tolerance);
+                level.prepareIndex();
+                handler.post(new Runnable() {
+                    public void run() {
+                        if(generation == mapGeneration) {
+                            levels[k] = level;
+                            redrawAll();
+                        }
+                    }
+                });
+            }
+        });
+    }
+    
+    private static synchronized ExecutorService getLevelExecutor()
+    {
+        if(levelExecutor == null) {
+            levelExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "MapView levels");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return levelExecutor;
+    }
+    
+    /**
+     * Zooms by a factor, keeping the map point under the given screen position where it is.
+     */
+    private void zoom(float factor, float focusX, float focusY)
+    {
+        float zoom = Math.max(MIN_ZOOM, Math.min(MAX_ZOOM, scale.x * factor / baseScale.x));
+        factor = zoom * baseScale.x / scale.x;
+        
+        offsetX = (offsetX + focusX) * factor - focusX;
+        offsetY = (offsetY + focusY) * factor - focusY;
+        scale.set(zoom * baseScale.x, zoom * baseScale.y);
+        redrawAll();
+    }
+    
+    /**
+     * Scales the user path into pathLines, reusing the buffer when it is big enough.
+     */
+    private void buildPathLines()
+    {
+        int segments = Math.max(0, userPath.size() - 1);
+        if(pathLines.length < 4 * segments)
+            pathLines = new float[4 * segments];
+        
+        for(int i = 0; i < segments; i++){
+            PointF from = userPath.get(i), to = userPath.get(i + 1);
+            pathLines[4 * i] = from.x * scale.x;
+            pathLines[4 * i + 1] = from.y * scale.y;
+            pathLines[4 * i + 2] = to.x * scale.x;
+            pathLines[4 * i + 3] = to.y * scale.y;
+        }
+        pathLineCount = 4 * segments;
+        pathLinesScaleX = scale.x;
+        pathLinesScaleY = scale.y;
+        pathLinesValid = true;
+    }
+    
+    /*
+     * (non-Javadoc)
+     * @see android.view.View#onDetachedFromWindow()
+     */
+    @Override
+    protected void onDetachedFromWindow()
+    {
+        super.onDetachedFromWindow();
+        removeCallbacks(redraw);
+        redrawScheduled = false;
+        // the layer is drawn again if the view comes back
+        if(wallLayer != null) {
+            wallCanvas.setBitmap(null);
+            wallLayer.recycle();
+            wallLayer = null;
+        }
     }
 
 
@@ -295,9 +622,33 @@ public class MapView extends View
      * @param newMap
      */
     public void setMap(NavigationalMap newMap)
+    {
+        showMap(newMap, false);
+    }
+    
+    /**
+     * Shows a map that is still being loaded, as MapLoadListener.mapProgress hands it out; 
+     * call setMap with the finished map once it is loaded. Until then every wall is drawn, 
+     * without the grid that culls them to the view and without simplified copies for zooming out, 
+     * as both would have to be built again each time the map grows.
+     * @param partial the map as far as it has been read
+     */
+    public void setPartialMap(NavigationalMap partial)
+    {
+        showMap(partial, true);
+    }
+    
+    private void showMap(NavigationalMap newMap, boolean loading)
     {
         map = newMap;
-        invalidate();
+        mapLoading = loading;
+        mapGeneration++;
+        for(int k = 0; k < LOD_LEVELS; k++){
+            levels[k] = null;
+            levelsRequested[k] = false;
+        }
+        wallLayerValid = false;
+        redrawAll();
     }
     
     /**
@@ -371,7 +722,7 @@ public class MapView extends View
         } else {
             ret = false;
         }
-        invalidate();
+        redrawAll();
         
         
         return ret;
@@ -393,11 +744,31 @@ public class MapView extends View
         @Override
         public void onLongPress(MotionEvent e) {
             
-            parent.selectPoint.x = e.getX() / scale.x;
-            parent.selectPoint.y = e.getY() / scale.y;
-            parent.invalidate();
+            parent.selectPoint.x = (e.getX() + offsetX) / scale.x;
+            parent.selectPoint.y = (e.getY() + offsetY) / scale.y;
+            parent.redrawAll();
+        }
+        
+        @Override
+        public boolean onScroll(MotionEvent e1, MotionEvent e2, float distanceX, float distanceY) {
+            // a pinch moves the map through zoom()
+            if(scaleGestureDetector.isInProgress())
+                return false;
+            offsetX += distanceX;
+            offsetY += distanceY;
+            parent.redrawAll();
+            return true;
         }
 
     }
+    
+    private class MapperScaleGestureDetector extends ScaleGestureDetector.SimpleOnScaleGestureListener
+    {
+        @Override
+        public boolean onScale(ScaleGestureDetector detector) {
+            zoom(detector.getScaleFactor(), detector.getFocusX(), detector.getFocusY());
+            return true;
+        }
+    }
 
 }
@@ -0,0 +1,646 @@
+/*
+ * Copyright MapNav contributors 2026
+ *
+ *
+    This file is part of Mapper.
+
+    Mapper is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Mapper is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with Mapper.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+
+package com.example.mapnav;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import android.graphics.PointF;
+import android.hardware.Sensor;
+import android.os.Handler;
+import android.util.Log;
+
+/**
+ * Turns sensor samples into steps, a position on the map, and guidance towards the destination, 
+ * on a thread of its own.
+ *
+ * Sensor listeners only add their samples to a SensorSampleRing with offer(); the navigation thread 
+ * takes them from there, so the UI thread does none of this work. All the navigation state belongs 
+ * to that thread. Other threads change it through commands (setMap, setOrigin, setDestination, 
+ * resetSteps, calibrateNorth) which run on the navigation thread between samples. Results are 
+ * published as immutable NavigationSnapshots, handed to the listener on the thread that created 
+ * the processor, or by the Executor it was given; if several are published before the listener gets to them, it only sees the last.
+ *
+ * Guidance (the route, the distance left, which way to turn and the text shown) only changes when 
+ * the user takes a step, the origin or destination moves, or the heading turns into another of the 
+ * eight compass sectors, so it is only worked out again then; other samples only run the step 
+ * detector. Processing a sample allocates nothing: the scratch points and the route are reused, 
+ * and a new snapshot is only built when something it shows has changed and the listener has been 
+ * given the previous one.
+ */
+class NavigationProcessor implements Runnable
+{
+    /**
+     * Told about new snapshots, on the thread that created the processor.
+     */
+    interface Listener
+    {
+        void navigationUpdated(NavigationSnapshot snapshot);
+    }
+
+    private static final String TAG = "NavigationProcessor";
+
+    // Routing modes: plan a fresh route every step, look it up in a field built per destination,
+    // or repair the previous step's route
+    static final int ROUTE_PLANNER = 0, ROUTE_DISTANCE_FIELD = 1, ROUTE_INCREMENTAL = 2;
+
+    private static final float stepSize = 0.66f;
+    private static final float wallClearance = 0.4f;
+    private static final float gridCellSize = 0.2f;
+    // Recently planned routes, matched by the cells their ends fall in
+    private static final int routeCacheSize = 32;
+    private static final float routeCacheCellSize = 0.5f;
+
+    // samples queued for longer than this are counted as late
+    private static final long LATE_NANOS = 100 * 1000000L;
+    // how long the thread waits for a sample before checking for commands anyway
+    private static final long IDLE_NANOS = 50 * 1000000L;
+    private static final int RING_CAPACITY = 1024;
+    // points the route buffer starts with; routes rarely bend more often than this
+    private static final int ROUTE_CAPACITY = 16;
+
+    private final SensorSampleRing ring = new SensorSampleRing(RING_CAPACITY);
+    private final Queue<Runnable> commands = new ConcurrentLinkedQueue<Runnable>();
+    private final Executor delivery;
+    private final Listener listener;
+    private final LineGraphView graph;
+    private final StepDetector stepDetector;
+    private final int routingMode;
+    private Thread thread;
+    private volatile boolean running;
+
+    // the latest snapshot, and whether the listener has yet to be given it
+    private final AtomicReference<NavigationSnapshot> latest = new AtomicReference<NavigationSnapshot>();
+    private final AtomicBoolean deliveryPending = new AtomicBoolean();
+    private final Runnable deliver = new Runnable() {
+        public void run() {
+            deliveryPending.set(false);
+            listener.navigationUpdated(latest.get());
+        }
+    };
+
+    // Everything below belongs to the navigation thread.
+    private long lateSamples;
+
+    private int stepCount, stepCountN, stepCountNE, stepCountE, stepCountSE;
+    private final float[] rotation = new float[3], geomagnetic = new float[3], gravity = new float[3], orientation = new float[3];
+    private float displacementN, displacementE;
+    private float oValues, oValueOffset, rawOValue;
+
+    private NavigationalMap nm;
+    private PathPlanner planner;
+    private OccupancyGrid grid;
+    private DistanceField field;
+    private DStarLitePlanner incrementalPlanner;
+    private RouteCache routeCache;
+    // samples are only turned into steps once the map and everything built from it are ready
+    private boolean mapReady;
+    private PointF pointOrigin = new PointF(0, 0), pointDest = new PointF(0, 0);
+    private final PointF pointUser = new PointF();
+
+    // whether guidance must be worked out again, and the heading sector it was worked out for
+    private boolean guidanceStale = true;
+    private int guidanceSector = -1;
+
+    // reused from sample to sample
+    private final float[] graphPoint = new float[1];
+    private final PointF pointStep = new PointF(), pointHead = new PointF();
+    private final PathBuffer route = new PathBuffer(ROUTE_CAPACITY);
+    private final StringBuilder text = new StringBuilder();
+
+    // what the last snapshot showed, and whether anything has changed since
+    private int publishedSteps = -1;
+    private float publishedX, publishedY;
+    private List<PointF> publishedRoute = Collections.emptyList();
+    private String publishedGuidance = "";
+    private long publishedDropped, publishedLate;
+    private boolean unpublished;
+
+    /**
+     * @param routingMode one of the ROUTE_ constants
+     * @param stepCount the number of steps already taken, as restored after the activity is recreated
+     * @param listener told about each snapshot, on this thread, which must have a Looper
+     * @param graph the step detector's signal is added to it; may be null
+     * @param stepDetector finds steps in the linear acceleration; used on the navigation thread only
+     */
+    NavigationProcessor(int routingMode, int stepCount, Listener listener, LineGraphView graph,
+            StepDetector stepDetector)
+    {
+        this(routingMode, stepCount, listener, graph, stepDetector, new Executor() {
+            private final Handler handler = new Handler();
+
+            public void execute(Runnable command) {
+                handler.post(command);
+            }
+        });
+    }
+
+    /**
+     * @param routingMode one of the ROUTE_ constants
+     * @param stepCount the number of steps already taken, as restored after the activity is recreated
+     * @param listener told about each snapshot, by whatever thread delivery runs it on
+     * @param graph the step detector's signal is added to it; may be null
+     * @param stepDetector finds steps in the linear acceleration; used on the navigation thread only
+     * @param delivery runs the listener; given one delivery at a time, from the navigation thread
+     */
+    NavigationProcessor(int routingMode, int stepCount, Listener listener, LineGraphView graph,
+            StepDetector stepDetector, Executor delivery)
+    {
+        this.routingMode = routingMode;
+        this.stepDetector = stepDetector;
+        this.stepCount = stepCount;
+        this.listener = listener;
+        this.graph = graph;
+        this.delivery = delivery;
+    }
+
+    /**
+     * Starts the navigation thread.
+     */
+    synchronized void start()
+    {
+        if(thread != null)
+            return;
+        running = true;
+        thread = new Thread(this, "Navigation");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops the navigation thread once it is done with the sample at hand. Samples offered after this are dropped.
+     */
+    synchronized void stop()
+    {
+        running = false;
+        ring.wake();
+        thread = null;
+    }
+
+    /**
+     * Queues a sensor sample. Call from the one thread all the sensor listeners run on; 
+     * copies the values and returns straight away.
+     * @param type the Sensor.TYPE_ constant of the sensor
+     * @param timestamp the event's timestamp
+     * @param values the event's values
+     * @return false if the navigation thread has fallen so far behind that the sample was dropped
+     */
+    boolean offer(int type, long timestamp, float[] values)
+    {
+        return ring.offer(type, timestamp, values);
+    }
+
+    /**
+     * Uses a newly loaded map: builds everything routing needs from it on the navigation thread, 
+     * then starts turning samples into steps.
+     */
+    void setMap(final NavigationalMap map)
+    {
+        post(new Runnable() {
+            public void run() {
+                logRouteCache();
+                nm = map;
+                routeCache = new RouteCache(nm, routeCacheSize, routeCacheCellSize);
+                planner = new PathPlanner(nm, wallClearance);
+                grid = new OccupancyGrid(nm, gridCellSize, wallClearance);
+                incrementalPlanner = new DStarLitePlanner(grid);
+
+                // A destination may have been picked while the map was loading
+                if(routingMode == ROUTE_DISTANCE_FIELD)
+                    field = new DistanceField(grid, pointDest);
+                incrementalPlanner.setDestination(pointDest);
+                mapReady = true;
+                guidanceStale = true;
+            }
+        });
+    }
+
+    /**
+     * Moves the user to a new origin and starts counting steps again. The point is copied.
+     */
+    void setOrigin(PointF origin)
+    {
+        final PointF loc = new PointF(origin.x, origin.y);
+        post(new Runnable() {
+            public void run() {
+                pointOrigin = loc;
+                stepCount = stepCountN = stepCountNE = stepCountE = stepCountSE = 0;
+                clearBlocked();
+                moveUser();
+            }
+        });
+    }
+
+    /**
+     * Routes to a new destination. The point is copied.
+     */
+    void setDestination(PointF destination)
+    {
+        final PointF dest = new PointF(destination.x, destination.y);
+        post(new Runnable() {
+            public void run() {
+                pointDest = dest;
+                guidanceStale = true;
+
+                //Route every cell to the new destination once, instead of every step
+                //(if the map is still loading, this is done once it is ready)
+                if(!mapReady)
+                    return;
+                if(routingMode == ROUTE_DISTANCE_FIELD)
+                    field = new DistanceField(grid, dest);
+                clearBlocked();
+                incrementalPlanner.setDestination(dest);
+            }
+        });
+    }
+
+    /**
+     * Counts steps from zero again, from the origin.
+     */
+    void resetSteps()
+    {
+        post(new Runnable() {
+            public void run() {
+                stepCount = stepCountN = stepCountNE = stepCountE = stepCountSE = 0;
+                clearBlocked();
+                moveUser();
+            }
+        });
+    }
+
+    /**
+     * Takes the current heading as north from now on.
+     */
+    void calibrateNorth()
+    {
+        post(new Runnable() {
+            public void run() {
+                oValueOffset = rawOValue;
+            }
+        });
+    }
+
+    private void post(Runnable command)
+    {
+        commands.add(command);
+        ring.wake();
+    }
+
+    /**
+     * The navigation thread: runs commands and processes samples until stopped.
+     */
+    public void run()
+    {
+        SensorSampleRing.Sample sample = new SensorSampleRing.Sample();
+        while(running) {
+            Runnable command;
+            while((command = commands.poll()) != null)
+                command.run();
+            if(unpublished)
+                flush();
+
+            if(!ring.poll(sample)) {
+                ring.await(IDLE_NANOS);
+                continue;
+            }
+            if(System.nanoTime() - sample.received > LATE_NANOS)
+                lateSamples++;
+            process(sample);
+        }
+        logRouteCache();
+    }
+
+    /**
+     * Logs how well the route cache has done on the current map, to help size it.
+     */
+    private void logRouteCache()
+    {
+        if(routeCache == null)
+            return;
+        Log.i(TAG, "Route cache: " + routeCache.getHits() + " hits, " + routeCache.getMisses() + " misses, "
+                + routeCache.size() + " of " + routeCacheSize + " routes kept");
+    }
+
+    private void process(SensorSampleRing.Sample sample)
+    {
+        float[] values = sample.values;
+        switch(sample.type) {
+        case Sensor.TYPE_GYROSCOPE:
+            System.arraycopy(values, 0, rotation, 0, 3);
+            break;
+        case Sensor.TYPE_ORIENTATION:
+            // Determine heading
+            System.arraycopy(values, 0, orientation, 0, 3);
+
+            rawOValue = values[0];
+            oValues = (values[0] - oValueOffset) % 360;
+
+            if(oValues < 0) {
+                oValues += 360;
+            }
+            if(sector(oValues) != guidanceSector)
+                guidanceStale = true;
+            break;
+        case Sensor.TYPE_MAGNETIC_FIELD:
+            // Store geomagnetic values
+            System.arraycopy(values, 0, geomagnetic, 0, 3);
+            break;
+        case Sensor.TYPE_LINEAR_ACCELERATION:
+            if(mapReady)
+                processAcceleration(sample.timestamp, values);
+            break;
+        }
+
+        if(guidanceStale && mapReady)
+            updateGuidance();
+        if(ring.getDropped() != publishedDropped || lateSamples != publishedLate)
+            unpublished = true;
+        if(unpublished)
+            flush();
+    }
+
+    /**
+     * The compass sector, 0 (N) to 7 (NW), a heading in degrees falls in.
+     */
+    private static int sector(float heading)
+    {
+        return (int) ((heading + 22.5f) / 45) % 8;
+    }
+
+    private void processAcceleration(long timestamp, float[] values)
+    {
+        System.arraycopy(values, 0, gravity, 0, 3);
+        boolean step = stepDetector.addSample(timestamp, values[0], values[1], values[2],
+                rotation[0], rotation[1], rotation[2]);
+
+        graphPoint[0] = stepDetector.getSignal();
+
+        if(graph != null)
+            graph.addPoint(graphPoint);
+
+        if (step)
+        {
+            /*8 quadrants instead of 4
+            if (oValues >=  337.5 || oValues < 22.5 )
+                stepCountN++;
+            else if(oValues >= 22.5 && oValues < 67.5)
+                stepCountNE++;
+            else if(oValues >= 67.5 && oValues < 112.5)
+                stepCountE++;
+            else if(oValues >= 112.5 && oValues < 157.5)
+                stepCountSE++;
+            else if(oValues >= 157.5 && oValues < 202.5)
+                stepCountN--;
+            else if(oValues >= 202.5 && oValues < 247.5)
+                stepCountNE--;
+            else if(oValues >= 247.5 && oValues < 292.5)
+                stepCountE--;
+            else if(oValues >= 292.5 && oValues < 337.5)
+                stepCountSE--;*/
+
+            // Detect if stepping through wall
+            int stepCountNTemp = stepCountN;
+            int stepCountETemp = stepCountE;
+
+            if(oValues >= 315 || oValues < 45)
+                stepCountNTemp++;
+            else if(oValues >= 45 && oValues < 135)
+                stepCountETemp++;
+            else if(oValues >= 135 && oValues < 225)
+                stepCountNTemp--;
+            else if(oValues >= 225 && oValues < 315)
+                stepCountETemp--;
+
+            pointStep.set(pointOrigin.x + ( stepCountETemp / stepSize ), pointOrigin.y - ( stepCountNTemp / stepSize ));
+            if(nm.isLineOfSightClear(pointUser, pointStep)){
+                stepCountN = stepCountNTemp;
+                stepCountE = stepCountETemp;
+                stepCount++;
+                moveUser();
+            }else{
+                // Keep routes away from the wall the step ran into
+                InterceptPoint wall = nm.firstIntersection(pointUser, pointStep);
+                if(wall != null && incrementalPlanner.setBlocked(pointUser, pointStep, wall.getPoint())){
+                    routeCache.invalidate();
+                    guidanceStale = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Forgets the cells steps have run into, and the routes planned around them.
+     */
+    private void clearBlocked()
+    {
+        if(mapReady && incrementalPlanner.clearBlocked())
+            routeCache.invalidate();
+    }
+
+    /**
+     * Works out where the user is from the steps counted since the origin.
+     */
+    private void moveUser()
+    {
+        // Calculate displacement
+        displacementN = (float) stepCountN;
+        displacementE = (float) stepCountE;
+
+        //Calculate displacement when using 8 quadrants
+        //displacementN = (float) (stepCountN + Math.sqrt(0.5)*stepCountNE - Math.sqrt(0.5)*stepCountSE);
+        //displacementE = (float) (stepCountE + Math.sqrt(0.5)*stepCountNE + Math.sqrt(0.5)*stepCountSE);
+
+        // Calculate user position
+        pointUser.set(displacementE / stepSize + pointOrigin.x, -displacementN / stepSize + pointOrigin.y);
+        guidanceStale = true;
+    }
+
+    /**
+     * Works out the route from where the user is, and what to tell them.
+     */
+    private void updateGuidance()
+    {
+        guidanceStale = false;
+        guidanceSector = sector(oValues);
+
+        // Calculate path to destinaion
+        if(!routeCache.get(pointUser, pointDest, route)){
+            List<PointF> myList;
+            if(routingMode == ROUTE_DISTANCE_FIELD && field != null)
+                myList = field.getRoute(pointUser);
+            else if(routingMode == ROUTE_INCREMENTAL)
+                myList = incrementalPlanner.plan(pointUser);
+            else
+                myList = planner.plan(pointUser, pointDest);
+
+            if(myList != null){
+                routeCache.put(pointUser, pointDest, myList);
+                route.set(myList);
+            }else{
+                //No way around the walls; point straight at the destination
+                route.clear();
+                route.add(pointUser.x, pointUser.y);
+                route.add(pointDest.x, pointDest.y);
+            }
+        }
+        double distance = VectorUtils.pathLength(route);
+        PointF pointNext = route.get(1);
+
+        //Output information
+        String orientation = "";
+
+        if (oValues >=  337.5 || oValues < 22.5 )
+            orientation = "N";
+        else if(oValues >= 22.5 && oValues < 67.5)
+            orientation = "NE";
+        else if(oValues >= 67.5 && oValues < 112.5)
+            orientation = "E";
+        else if(oValues >= 112.5 && oValues < 157.5)
+            orientation = "SE";
+        else if(oValues >= 157.5 && oValues < 202.5)
+            orientation = "S";
+        else if(oValues >= 202.5 && oValues < 247.5)
+            orientation = "SW";
+        else if(oValues >= 247.5 && oValues < 292.5)
+            orientation = "W";
+        else if(oValues >= 292.5 && oValues < 337.5)
+            orientation = "NW";
+
+        // Built by hand rather than with String.format, which allocates every time
+        text.setLength(0);
+        text.append("Step Count: ").append(stepCount).append('\n');
+        appendFixed(text.append("Displacement North: "), displacementN, 3).append('\n');
+        appendFixed(text.append("Displacement East: "), displacementE, 3).append('\n');
+        text.append("Orientation: ").append(orientation).append('\n');
+        appendFixed(text.append("Heading: "), oValues, 3).append('\n');
+        appendFixed(text.append("Distance: "), distance, 3).append('\n');
+
+        // Get angle to next point
+        pointHead.set(pointUser);
+        if (oValues >=  337.5 || oValues < 22.5 ){
+            pointHead.y -= 1;
+        }else if(oValues >= 22.5 && oValues < 67.5){
+            pointHead.y -= 1;
+            pointHead.x += 1;
+        }else if(oValues >= 67.5 && oValues < 112.5){
+            pointHead.x += 1;
+        }else if(oValues >= 112.5 && oValues < 157.5){
+            pointHead.y += 1;
+            pointHead.x += 1;
+        }else if(oValues >= 157.5 && oValues < 202.5){
+            pointHead.y += 1;
+        }else if(oValues >= 202.5 && oValues < 247.5){
+            pointHead.y += 1;
+            pointHead.x -= 1;
+        }else if(oValues >= 247.5 && oValues < 292.5){
+            pointHead.x -= 1;
+        }else if(oValues >= 292.5 && oValues < 337.5){
+            pointHead.y -= 1;
+            pointHead.x -= 1;
+        }
+
+        float angle = (float) ( VectorUtils.angleBetween(pointUser, pointHead, pointNext) * 180 / Math.PI);
+
+        // Check distance from destination
+        if(distance < 1f){
+            text.append("Destination Reached!\n");
+        }else if(Math.abs(angle) > 25){
+            if(angle > 0)
+                appendFixed(text.append("Turn right "), angle, 2).append(" degrees\n");
+            else
+                appendFixed(text.append("Turn left "), Math.abs(angle), 2).append(" degrees\n");
+        }else{
+            text.append("Walk forward\n");
+        }
+
+        if(stepCount != publishedSteps || pointUser.x != publishedX || pointUser.y != publishedY ||
+                !route.samePoints(publishedRoute) || !publishedGuidance.contentEquals(text))
+            unpublished = true;
+    }
+
+    /**
+     * Appends a number with a fixed number of decimals, as String.format("%.nf") would in an 
+     * English locale, without allocating.
+     */
+    private static StringBuilder appendFixed(StringBuilder sb, double value, int decimals)
+    {
+        if(Double.isNaN(value) || Double.isInfinite(value))
+            return sb.append(value);
+        long scale = 1;
+        for(int i = 0; i < decimals; i++)
+            scale *= 10;
+        long scaled = Math.round(Math.abs(value) * scale);
+        if(value < 0)
+            sb.append('-');
+        sb.append(scaled / scale).append('.');
+        long fraction = scaled % scale;
+        for(long digit = scale / 10; digit > 1 && fraction < digit; digit /= 10)
+            sb.append('0');
+        return sb.append(fraction);
+    }
+
+    /**
+     * Publishes what has changed since the last snapshot, unless the listener has yet to be 
+     * given that one; then this is tried again after the next sample.
+     */
+    private void flush()
+    {
+        if(deliveryPending.get())
+            return;
+        if(!route.samePoints(publishedRoute)) {
+            List<PointF> copy = new ArrayList<PointF>(route.size());
+            for(PointF p : route)
+                copy.add(new PointF(p.x, p.y));
+            publishedRoute = Collections.unmodifiableList(copy);
+        }
+        if(!publishedGuidance.contentEquals(text))
+            publishedGuidance = text.toString();
+        publishedSteps = stepCount;
+        publishedX = pointUser.x;
+        publishedY = pointUser.y;
+        publishedDropped = ring.getDropped();
+        publishedLate = lateSamples;
+
+        publish(new NavigationSnapshot(publishedSteps, publishedX, publishedY, publishedRoute, publishedGuidance,
+                publishedDropped, publishedLate));
+        unpublished = false;
+    }
+
+    /**
+     * Hands a snapshot to the listener, unless it has yet to be given the previous one, 
+     * in which case that one is replaced.
+     */
+    private void publish(NavigationSnapshot snapshot)
+    {
+        latest.set(snapshot);
+        if(deliveryPending.compareAndSet(false, true))
+            delivery.execute(deliver);
+    }
+}
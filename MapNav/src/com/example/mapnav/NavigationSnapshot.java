@@ -0,0 +1,112 @@
+/*
+ * Copyright MapNav contributors 2026
+ *
+ *
+    This file is part of Mapper.
+
+    Mapper is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Mapper is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with Mapper.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+
+package com.example.mapnav;
+
+import java.util.List;
+
+import android.graphics.PointF;
+
+/**
+ * What the navigation thread worked out from the sensors, as of one sample: where the user is, 
+ * the route from there, and the guidance to show. Immutable, so it can be handed to the UI thread.
+ */
+public final class NavigationSnapshot
+{
+    private final int stepCount;
+    private final float userX, userY;
+    private final List<PointF> route;
+    private final String guidance;
+    private final long droppedSamples, lateSamples;
+
+    /**
+     * @param route kept as it is, so it must never change; consecutive snapshots may share it
+     */
+    NavigationSnapshot(int stepCount, float userX, float userY, List<PointF> route, String guidance,
+            long droppedSamples, long lateSamples)
+    {
+        this.stepCount = stepCount;
+        this.userX = userX;
+        this.userY = userY;
+        this.route = route;
+        this.guidance = guidance;
+        this.droppedSamples = droppedSamples;
+        this.lateSamples = lateSamples;
+    }
+
+    /**
+     * The number of steps taken since the origin was set.
+     */
+    public int getStepCount()
+    {
+        return stepCount;
+    }
+
+    /**
+     * Where the user is, in meters.
+     */
+    public float getUserX()
+    {
+        return userX;
+    }
+
+    /**
+     * Where the user is, in meters.
+     */
+    public float getUserY()
+    {
+        return userY;
+    }
+
+    /**
+     * The route from the user to the destination, starting at the user. Do not modify the points.
+     */
+    public List<PointF> getRoute()
+    {
+        return route;
+    }
+
+    /**
+     * The text to show the user: step count, displacement, heading, distance and which way to go.
+     */
+    public String getGuidance()
+    {
+        return guidance;
+    }
+
+    /**
+     * The number of sensor samples dropped so far because the navigation thread fell behind.
+     */
+    public long getDroppedSamples()
+    {
+        return droppedSamples;
+    }
+
+    /**
+     * The number of sensor samples so far that waited too long before being processed.
+     */
+    public long getLateSamples()
+    {
+        return lateSamples;
+    }
+}
@@ -22,10 +22,18 @@
 
 package com.example.mapnav;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import android.graphics.PointF;
 
@@ -36,24 +44,292 @@ import android.graphics.PointF;
  */
 public class NavigationalMap 
 {
-    private List<List<PointF>> paths = new ArrayList<List<PointF>>();
+    // Rays in a batch are tested together in groups of this size, sharing one set of candidate walls.
+    private static final int RAY_GROUP_SIZE = 64;
+    // Batches at least this large are split across cores.
+    private static final int PARALLEL_BATCH_SIZE = 4 * RAY_GROUP_SIZE;
+    
+    private static ExecutorService batchExecutor;
+    
+    // The vertices of every wall, path after path, as x, y pairs.
+    private float[] coords = new float[64];
+    // The first vertex of each path; pathStarts[pathCount] is the number of vertices.
+    private int[] pathStarts = new int[16];
+    private int pathCount;
+    
+    // Built on demand after the map changes.
+    private List<List<PointF>> pathList;
+    private volatile Index index;
+    // A grid read along with the map, used instead of building one until the map changes.
+    private SegmentGrid savedGrid;
+    
+    /**
+     * Creates an empty map.
+     */
+    public NavigationalMap() {
+    }
+    
+    private NavigationalMap(float[] coords, int[] pathStarts, int pathCount, SegmentGrid grid) {
+        this.coords = coords;
+        this.pathStarts = pathStarts;
+        this.pathCount = pathCount;
+        this.savedGrid = grid;
+    }
     
     /**
      * Returns the set of walls in this map.
      */
-    public List<List<PointF>> getPaths() {
-        return Collections.unmodifiableList(paths);
+    public synchronized List<List<PointF>> getPaths() {
+        if(pathList == null) {
+            List<List<PointF>> ret = new ArrayList<List<PointF>>(pathCount);
+            for(int p = 0; p < pathCount; p++){
+                List<PointF> path = new ArrayList<PointF>(pathStarts[p + 1] - pathStarts[p]);
+                for(int v = pathStarts[p]; v < pathStarts[p + 1]; v++)
+                    path.add(new PointF(coords[2 * v], coords[2 * v + 1]));
+                ret.add(Collections.unmodifiableList(path));
+            }
+            pathList = Collections.unmodifiableList(ret);
+        }
+        return pathList;
     }
     
     /**
      * Add a wall to the map.
      */
-    void addPath(List<PointF> p) {
-        paths.add(p);
+    synchronized void addPath(List<PointF> p) {
+        int vertexCount = reserve(p.size());
+        
+        for(PointF point : p){
+            coords[2 * vertexCount] = point.x;
+            coords[2 * vertexCount + 1] = point.y;
+            vertexCount++;
+        }
+        pathStarts[++pathCount] = vertexCount;
+        
+        pathList = null;
+        index = null;
+        savedGrid = null;
+    }
+    
+    /**
+     * Add a wall to the map.
+     * @param xy the x and y coordinates of the wall's vertices, one pair after another (in meters)
+     * @param offset the index in xy of the first vertex's x coordinate
+     * @param count the number of vertices
+     */
+    synchronized void addPath(float[] xy, int offset, int count) {
+        int vertexCount = reserve(count);
+        
+        System.arraycopy(xy, offset, coords, 2 * vertexCount, 2 * count);
+        pathStarts[++pathCount] = vertexCount + count;
+        
+        pathList = null;
+        index = null;
+        savedGrid = null;
+    }
+    
+    /**
+     * The number of bytes write() puts.
+     * @param withIndex whether the grid over the walls is to be written too
+     */
+    synchronized int byteSize(boolean withIndex) {
+        int ret = 4 * (3 + pathCount + 1 + 2 * pathStarts[pathCount]);
+        if(withIndex)
+            ret += getIndex().grid.byteSize();
+        return ret;
+    }
+    
+    /**
+     * Writes the walls, and optionally the grid over them, to a buffer, to be read back by read().
+     */
+    synchronized void write(ByteBuffer out, boolean withIndex) {
+        int vertexCount = pathStarts[pathCount];
+        out.putInt(pathCount).putInt(vertexCount);
+        MapFile.putInts(out, pathStarts, pathCount + 1);
+        MapFile.putFloats(out, coords, 2 * vertexCount);
+        out.putInt(withIndex ? 1 : 0);
+        if(withIndex)
+            getIndex().grid.write(out);
+    }
+    
+    /**
+     * Reads a map written by write(). Nothing is created per wall or vertex.
+     */
+    static NavigationalMap read(ByteBuffer in) {
+        int pathCount = in.getInt(), vertexCount = in.getInt();
+        int[] pathStarts = MapFile.getInts(in, pathCount + 1);
+        float[] coords = MapFile.getFloats(in, 2 * vertexCount);
+        SegmentGrid grid = null;
+        if(in.getInt() != 0)
+            grid = SegmentGrid.read(in, segmentCount(pathStarts, pathCount));
+        return new NavigationalMap(coords, pathStarts, pathCount, grid);
+    }
+    
+    /**
+     * The number of walls in the map: one per pair of consecutive vertices in a path.
+     */
+    synchronized int getSegmentCount() {
+        return segmentCount(pathStarts, pathCount);
+    }
+    
+    private static int segmentCount(int[] pathStarts, int pathCount) {
+        int ret = 0;
+        for(int p = 0; p < pathCount; p++)
+            ret += Math.max(0, pathStarts[p + 1] - pathStarts[p] - 1);
+        return ret;
+    }
+    
+    /**
+     * Writes every wall to a buffer as the four coordinates of its ends, scaled, in the layout Canvas.drawLines 
+     * takes. Unlike the overload taking a rectangle, this does not need the grid, so it is cheap on a map 
+     * that is still being loaded and whose grid would have to be built again after every path.
+     * @param scaleX multiplies every x coordinate
+     * @param scaleY multiplies every y coordinate
+     * @param out where to write the walls, sized for 4 * getSegmentCount() floats; walls that do not fit, 
+     * which can only happen if the map grew since, are left out
+     * @return the number of floats written
+     */
+    synchronized int getSegmentLines(float scaleX, float scaleY, float[] out) {
+        int i = 0;
+        for(int p = 0; p < pathCount; p++){
+            for(int v = pathStarts[p]; v < pathStarts[p + 1] - 1 && i + 4 <= out.length; v++){
+                out[i++] = coords[2 * v] * scaleX;
+                out[i++] = coords[2 * v + 1] * scaleY;
+                out[i++] = coords[2 * v + 2] * scaleX;
+                out[i++] = coords[2 * v + 3] * scaleY;
+            }
+        }
+        return i;
+    }
+    
+    /**
+     * Writes the walls that may pass through a rectangle to a buffer, scaled, in the layout Canvas.drawLines 
+     * takes. Only the grid cells the rectangle covers are visited, so the cost follows the number of walls 
+     * near the rectangle rather than the size of the map.
+     * @param minX the left of the rectangle (in meters)
+     * @param minY the top of the rectangle (in meters)
+     * @param maxX the right of the rectangle (in meters)
+     * @param maxY the bottom of the rectangle (in meters)
+     * @param scaleX multiplies every x coordinate
+     * @param scaleY multiplies every y coordinate
+     * @param out where to write the walls, sized for 4 * getSegmentCount() floats; walls that do not fit, 
+     * which can only happen if the map grew since, are left out
+     * @return the number of floats written
+     */
+    int getSegmentLines(float minX, float minY, float maxX, float maxY, float scaleX, float scaleY, float[] out) {
+        Index idx = getIndex();
+        SegmentStore segms = idx.segments;
+        SegmentGrid.Scratch candidates = idx.state.get().candidates;
+        idx.grid.collectBox(minX, minY, maxX, maxY, candidates);
+        
+        int ret = 0;
+        for(int k = 0; k < candidates.size; k++){
+            int i = candidates.ids[k];
+            if(segms.maxX[i] < minX || segms.minX[i] > maxX || segms.maxY[i] < minY || segms.minY[i] > maxY)
+                continue;
+            if(ret + 4 > out.length)
+                break;
+            out[ret++] = segms.x0[i] * scaleX;
+            out[ret++] = segms.y0[i] * scaleY;
+            out[ret++] = segms.x1[i] * scaleX;
+            out[ret++] = segms.y1[i] * scaleY;
+        }
+        return ret;
+    }
+    
+    /**
+     * Builds the index queries use now, rather than on the first query.
+     */
+    void prepareIndex() {
+        getIndex();
+    }
+    
+    /**
+     * Returns a copy of this map with fewer walls; see MapSimplifier.
+     * @param tolerance how far (in meters) a wall may move; 0 to only remove walls that change nothing
+     */
+    synchronized NavigationalMap simplify(float tolerance) {
+        return MapSimplifier.simplify(coords, pathStarts, pathCount, tolerance);
+    }
+    
+    /**
+     * Makes room for one more path of the given number of vertices.
+     * @return the number of vertices already stored
+     */
+    private int reserve(int count) {
+        int vertexCount = pathStarts[pathCount];
+        
+        if(2 * (vertexCount + count) > coords.length) {
+            float[] grown = new float[Math.max(2 * coords.length, 2 * (vertexCount + count))];
+            System.arraycopy(coords, 0, grown, 0, 2 * vertexCount);
+            coords = grown;
+        }
+        if(pathCount + 2 > pathStarts.length) {
+            int[] grown = new int[2 * pathStarts.length];
+            System.arraycopy(pathStarts, 0, grown, 0, pathCount + 1);
+            pathStarts = grown;
+        }
+        return vertexCount;
+    }
+    
+    /**
+     * The walls of the map compiled for queries, with a grid over them.
+     */
+    private static class Index
+    {
+        final SegmentStore segments;
+        final SegmentGrid grid;
+        final ThreadLocal<QueryState> state;
+        
+        Index(float[] coords, int[] pathStarts, int pathCount, SegmentGrid savedGrid) {
+            segments = new SegmentStore(coords, pathStarts, pathCount);
+            if(savedGrid != null)
+                grid = savedGrid;
+            else
+                grid = new SegmentGrid(segments.x0, segments.y0, segments.x1, segments.y1, segments.m, segments.count);
+            state = new ThreadLocal<QueryState>() {
+                @Override
+                protected QueryState initialValue() {
+                    return new QueryState(grid.newScratch());
+                }
+            };
+        }
+    }
+    
+    /**
+     * Per-thread buffers reused by every query.
+     */
+    private static class QueryState
+    {
+        final SegmentGrid.Scratch candidates;
+        final float[] point = new float[2];
+        // start x, start y, end x, end y, slope and intercept of each ray in a group
+        final float[] rays = new float[6 * RAY_GROUP_SIZE];
+        final boolean[] blocked = new boolean[RAY_GROUP_SIZE];
+        
+        QueryState(SegmentGrid.Scratch candidates) {
+            this.candidates = candidates;
+        }
+    }
+    
+    /**
+     * Returns the index over the walls, building it if the map has changed since it was last built.
+     */
+    private Index getIndex() {
+        Index ret = index;
+        if(ret == null) {
+            synchronized(this) {
+                if(index == null)
+                    index = new Index(coords, pathStarts, pathCount, savedGrid);
+                ret = index;
+            }
+        }
+        return ret;
     }
     
     /**
      * Calculates where a given line segment intersects lines on the map.
+     * Only the walls in the grid cells that the line crosses are tested.
      * 
      * @param start the start point of the line to calculate (in meters)
      * @param end the end point of the line to calculate (in meters)
@@ -63,24 +339,41 @@ public class NavigationalMap
     public List<InterceptPoint> calculateIntersections(final PointF start, final PointF end)
     {
         List<InterceptPoint> ret = new ArrayList<InterceptPoint>();
-        LineSegment query = new LineSegment(start, end);
         
-        for(List<PointF> path : getPaths()){
-            for(int i = 0; i < path.size() - 1; i++){
-                LineSegment segm = new LineSegment(path.get(i), path.get(i+1));
-                
-                if(segm.theSame(query))
-                    continue;
-                
-                PointF p = query.findIntercept(segm);
-                if(p != null){
-                    ret.add(new InterceptPoint(segm, p));
-                }
-                
+        float sx = start.x, sy = start.y, ex = end.x, ey = end.y;
+        float qm = LineSegment.slope(sx, sy, ex, ey);
+        float qb = LineSegment.intercept(sx, sy, qm);
+        
+        Index idx = getIndex();
+        SegmentStore segms = idx.segments;
+        QueryState state = idx.state.get();
+        SegmentGrid.Scratch candidates = state.candidates;
+        idx.grid.collect(sx, sy, ex, ey, qm, candidates);
+        
+        // candidates are in map order, so ties are sorted the same way as a full scan would sort them
+        for(int k = 0; k < candidates.size; k++){
+            int i = candidates.ids[k];
+            
+            if(!segms.mayIntersect(i, sx, sy, ex, ey, qm) || segms.theSame(i, sx, sy, ex, ey, qm, qb))
+                continue;
+            
+            switch(segms.findIntercept(i, sx, sy, ex, ey, qm, qb, state.point)){
+            case LineSegment.POINT_INTERCEPT:
+                ret.add(new InterceptPoint(segms.lineSegment(i), new PointF(state.point[0], state.point[1])));
+                break;
+            case LineSegment.SAME_LINE:
+                ret.add(new InterceptPoint(segms.lineSegment(i), new PointF(Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY)));
+                break;
             }
         }
         
-        Collections.sort(ret, new Comparator<InterceptPoint>(){
+        sortByDistance(ret, start);
+        return ret;
+    }
+    
+    private static void sortByDistance(List<InterceptPoint> intercepts, final PointF start)
+    {
+        Collections.sort(intercepts, new Comparator<InterceptPoint>(){
             public int compare(InterceptPoint arg0, InterceptPoint arg1) {
                 float distStart0 = VectorUtils.distance(start, arg0.getPoint());
                 float distStart1 = VectorUtils.distance(start, arg1.getPoint());
@@ -92,9 +385,291 @@ public class NavigationalMap
                     return 1;
             }
         });
+    }
+    
+    /**
+     * Calculates where each of a batch of line segments intersects lines on the map.
+     * The candidate walls of nearby rays are fetched once and tested against all of them, 
+     * and large batches are split across cores.
+     * 
+     * @param starts the start points of the lines to calculate (in meters)
+     * @param ends the end points of the lines to calculate (in meters); must be as long as starts
+     * @return For each line, the same list calculateIntersections(starts[i], ends[i]) would return.
+     */
+    public List<List<InterceptPoint>> calculateIntersections(final PointF[] starts, final PointF[] ends)
+    {
+        final List<List<InterceptPoint>> ret = new ArrayList<List<InterceptPoint>>(starts.length);
+        for(int i = 0; i < starts.length; i++)
+            ret.add(new ArrayList<InterceptPoint>());
         
+        runBatch(starts, ends, new BatchTask() {
+            public void run(Index idx, int from, int to) {
+                intersectRays(idx, starts, ends, from, to, ret, null);
+                for(int i = from; i < to; i++)
+                    sortByDistance(ret.get(i), starts[i]);
+            }
+        });
         return ret;
     }
+    
+    /**
+     * Checks a batch of line segments for line of sight. 
+     * Each ray stops being tested as soon as a wall is found in its way.
+     * 
+     * @param starts the start points of the lines to check (in meters)
+     * @param ends the end points of the lines to check (in meters); must be as long as starts
+     * @return For each line, what isLineOfSightClear(starts[i], ends[i]) would return.
+     */
+    public boolean[] areLinesOfSightClear(final PointF[] starts, final PointF[] ends)
+    {
+        final boolean[] ret = new boolean[starts.length];
+        
+        runBatch(starts, ends, new BatchTask() {
+            public void run(Index idx, int from, int to) {
+                intersectRays(idx, starts, ends, from, to, null, ret);
+            }
+        });
+        return ret;
+    }
+    
+    private interface BatchTask
+    {
+        /** Handles rays [from, to) of the batch. */
+        void run(Index idx, int from, int to);
+    }
+    
+    private void runBatch(PointF[] starts, PointF[] ends, final BatchTask task)
+    {
+        if(starts.length != ends.length)
+            throw new IllegalArgumentException("Every ray needs a start and an end point.");
+        
+        final Index idx = getIndex();
+        int count = starts.length;
+        int threads = Runtime.getRuntime().availableProcessors();
+        
+        if(count < PARALLEL_BATCH_SIZE || threads < 2) {
+            task.run(idx, 0, count);
+            return;
+        }
+        
+        // split into contiguous chunks of whole groups, one per core
+        int chunk = ((count + threads - 1) / threads + RAY_GROUP_SIZE - 1) / RAY_GROUP_SIZE * RAY_GROUP_SIZE;
+        List<Future<?>> pending = new ArrayList<Future<?>>();
+        for(int from = 0; from < count; from += chunk){
+            final int start = from, end = Math.min(count, from + chunk);
+            pending.add(getBatchExecutor().submit(new Callable<Void>() {
+                public Void call() {
+                    task.run(idx, start, end);
+                    return null;
+                }
+            }));
+        }
+        
+        try {
+            for(Future<?> f : pending)
+                f.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("Interrupted while calculating intersections", e);
+        } catch (ExecutionException e) {
+            throw new RuntimeException("Failed to calculate intersections", e.getCause());
+        }
+    }
+    
+    private static synchronized ExecutorService getBatchExecutor()
+    {
+        if(batchExecutor == null) {
+            batchExecutor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "NavigationalMap batch");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+        }
+        return batchExecutor;
+    }
+    
+    /**
+     * Tests rays [from, to) a group at a time. Within a group, the candidate walls of every ray 
+     * are gathered once, and each wall is tested against all the rays in the group that pass near it.
+     * Fills in hits when it is not null; otherwise fills in clear.
+     */
+    private static void intersectRays(Index idx, PointF[] starts, PointF[] ends, int from, int to,
+            List<List<InterceptPoint>> hits, boolean[] clear)
+    {
+        SegmentStore segms = idx.segments;
+        QueryState state = idx.state.get();
+        SegmentGrid.Scratch candidates = state.candidates;
+        float[] rays = state.rays;
+        boolean[] blocked = state.blocked;
+        
+        for(int group = from; group < to; group += RAY_GROUP_SIZE){
+            int size = Math.min(RAY_GROUP_SIZE, to - group);
+            
+            candidates.reset();
+            for(int r = 0; r < size; r++){
+                PointF start = starts[group + r], end = ends[group + r];
+                float qm = LineSegment.slope(start.x, start.y, end.x, end.y);
+                rays[6 * r] = start.x;
+                rays[6 * r + 1] = start.y;
+                rays[6 * r + 2] = end.x;
+                rays[6 * r + 3] = end.y;
+                rays[6 * r + 4] = qm;
+                rays[6 * r + 5] = LineSegment.intercept(start.x, start.y, qm);
+                blocked[r] = false;
+                idx.grid.collectMore(start.x, start.y, end.x, end.y, qm, 1L << r, candidates);
+            }
+            // walls in map order, so each ray's hits are in the same order as for a single query
+            Arrays.sort(candidates.ids, 0, candidates.size);
+            
+            int open = size;
+            for(int k = 0; k < candidates.size && open > 0; k++){
+                int i = candidates.ids[k];
+                
+                for(long rayBits = candidates.queries[i]; rayBits != 0; rayBits &= rayBits - 1){
+                    int r = Long.numberOfTrailingZeros(rayBits);
+                    if(blocked[r])
+                        continue;
+                    
+                    float sx = rays[6 * r], sy = rays[6 * r + 1], ex = rays[6 * r + 2], ey = rays[6 * r + 3];
+                    float qm = rays[6 * r + 4], qb = rays[6 * r + 5];
+                    
+                    if(!segms.mayIntersect(i, sx, sy, ex, ey, qm) || segms.theSame(i, sx, sy, ex, ey, qm, qb))
+                        continue;
+                    
+                    int result = segms.findIntercept(i, sx, sy, ex, ey, qm, qb, state.point);
+                    if(result == LineSegment.NO_INTERCEPT)
+                        continue;
+                    
+                    if(hits == null) {
+                        blocked[r] = true;
+                        open--;
+                    } else if(result == LineSegment.POINT_INTERCEPT) {
+                        hits.get(group + r).add(new InterceptPoint(segms.lineSegment(i), new PointF(state.point[0], state.point[1])));
+                    } else {
+                        hits.get(group + r).add(new InterceptPoint(segms.lineSegment(i), new PointF(Float.POSITIVE_INFINITY, Float.POSITIVE_INFINITY)));
+                    }
+                }
+            }
+            
+            if(clear != null) {
+                for(int r = 0; r < size; r++)
+                    clear[group + r] = !blocked[r];
+            }
+        }
+    }
+
+    /**
+     * Returns true if the given line segment does not intersect any line on the map.
+     * Equivalent to {@code calculateIntersections(start, end).isEmpty()}, but stops at the first wall it finds.
+     * 
+     * @param start the start point of the line to check (in meters)
+     * @param end the end point of the line to check (in meters)
+     * @return true if nothing on the map is in the way.
+     */
+    public boolean isLineOfSightClear(PointF start, PointF end)
+    {
+        float sx = start.x, sy = start.y, ex = end.x, ey = end.y;
+        float qm = LineSegment.slope(sx, sy, ex, ey);
+        float qb = LineSegment.intercept(sx, sy, qm);
+        
+        Index idx = getIndex();
+        SegmentStore segms = idx.segments;
+        QueryState state = idx.state.get();
+        SegmentGrid.Scratch candidates = state.candidates;
+        // order does not matter here, so the candidates are not sorted
+        candidates.reset();
+        idx.grid.collectMore(sx, sy, ex, ey, qm, 1, candidates);
+        
+        for(int k = 0; k < candidates.size; k++){
+            int i = candidates.ids[k];
+            
+            if(segms.mayIntersect(i, sx, sy, ex, ey, qm) && !segms.theSame(i, sx, sy, ex, ey, qm, qb) &&
+                    segms.findIntercept(i, sx, sy, ex, ey, qm, qb, state.point) != LineSegment.NO_INTERCEPT)
+                return false;
+        }
+        return true;
+    }
+    
+    /**
+     * Finds the intersection closest to the start of the given line segment.
+     * Equivalent to the first element of {@code calculateIntersections(start, end)}, 
+     * without building or sorting the whole list.
+     * 
+     * @param start the start point of the line to calculate (in meters)
+     * @param end the end point of the line to calculate (in meters)
+     * @return The closest point where the given line intersects with the map lines, or null if there is none.
+     */
+    public InterceptPoint firstIntersection(PointF start, PointF end)
+    {
+        float sx = start.x, sy = start.y, ex = end.x, ey = end.y;
+        float qm = LineSegment.slope(sx, sy, ex, ey);
+        float qb = LineSegment.intercept(sx, sy, qm);
+        
+        Index idx = getIndex();
+        SegmentStore segms = idx.segments;
+        QueryState state = idx.state.get();
+        SegmentGrid.Scratch candidates = state.candidates;
+        idx.grid.collect(sx, sy, ex, ey, qm, candidates);
+        
+        int best = -1;
+        float bestX = 0, bestY = 0, bestDist = 0;
+        
+        for(int k = 0; k < candidates.size; k++){
+            int i = candidates.ids[k];
+            
+            if(!segms.mayIntersect(i, sx, sy, ex, ey, qm) || segms.theSame(i, sx, sy, ex, ey, qm, qb))
+                continue;
+            
+            float x, y;
+            switch(segms.findIntercept(i, sx, sy, ex, ey, qm, qb, state.point)){
+            case LineSegment.POINT_INTERCEPT:
+                x = state.point[0];
+                y = state.point[1];
+                break;
+            case LineSegment.SAME_LINE:
+                x = y = Float.POSITIVE_INFINITY;
+                break;
+            default:
+                continue;
+            }
+            
+            // ties go to the earlier wall, as they do in the sorted list
+            float dist = VectorUtils.distance(sx, sy, x, y);
+            if(best == -1 || dist < bestDist && !VectorUtils.isZero(dist - bestDist)) {
+                best = i;
+                bestX = x;
+                bestY = y;
+                bestDist = dist;
+            }
+        }
+        
+        if(best == -1)
+            return null;
+        return new InterceptPoint(segms.lineSegment(best), new PointF(bestX, bestY));
+    }
+
+    /**
+     * Returns true if no line on the map comes within the given distance of the point.
+     * 
+     * @param point the point to check (in meters)
+     * @param clearance the distance to keep from every wall (in meters)
+     * @return true if every wall is at least clearance away from point.
+     */
+    public boolean isPointClear(PointF point, float clearance)
+    {
+        Index idx = getIndex();
+        SegmentStore segms = idx.segments;
+        SegmentGrid.Scratch candidates = idx.state.get().candidates;
+        idx.grid.collectBox(point.x - clearance, point.y - clearance, point.x + clearance, point.y + clearance, candidates);
+        
+        for(int k = 0; k < candidates.size; k++){
+            if(segms.distanceTo(candidates.ids[k], point.x, point.y) < clearance)
+                return false;
+        }
+        return true;
+    }
 
     /**
      * Returns a list of line segments from the map; all start at the given point.
@@ -110,19 +685,24 @@ public class NavigationalMap
      */
     public List<LineSegment> getGeometryAtPoint(PointF point)
     {
-        List<LineSegment> geo = getGeometry();
         List<LineSegment> ret = new ArrayList<LineSegment>();
         
-        for (LineSegment seg : geo) {
-            if(VectorUtils.areEqual(seg.start, point)) {
-                ret.add(seg);
-            } else if(VectorUtils.areEqual(seg.end, point)) {
-                ret.add(new LineSegment(seg.end, seg.start));
-            } else if(seg.containsPoint(point)) {
-                ret.add(new LineSegment(point, seg.start));
-                ret.add(new LineSegment(point, seg.end));
-            }
+        Index idx = getIndex();
+        SegmentStore segms = idx.segments;
+        SegmentGrid.Scratch candidates = idx.state.get().candidates;
+        idx.grid.collect(point.x, point.y, point.x, point.y, Float.NaN, candidates);
+        
+        for(int k = 0; k < candidates.size; k++){
+            int i = candidates.ids[k];
             
+            if(VectorUtils.areEqual(segms.x0[i], point.x) && VectorUtils.areEqual(segms.y0[i], point.y)) {
+                ret.add(segms.lineSegment(i));
+            } else if(VectorUtils.areEqual(segms.x1[i], point.x) && VectorUtils.areEqual(segms.y1[i], point.y)) {
+                ret.add(new LineSegment(segms.x1[i], segms.y1[i], segms.x0[i], segms.y0[i]));
+            } else if(segms.containsPoint(i, point.x, point.y)) {
+                ret.add(new LineSegment(point.x, point.y, segms.x0[i], segms.y0[i]));
+                ret.add(new LineSegment(point.x, point.y, segms.x1[i], segms.y1[i]));
+            }
         }
         return ret;
     }
@@ -134,14 +714,11 @@ public class NavigationalMap
      * All the data in the loaded map as line segments
      */
     public List<LineSegment> getGeometry(){
-        List<LineSegment> ret = new ArrayList<LineSegment>();
+        SegmentStore segms = getIndex().segments;
+        List<LineSegment> ret = new ArrayList<LineSegment>(segms.count);
         
-        for(List<PointF> path : paths){
-            for(int i = 0; i < path.size() - 1; i++){
-                LineSegment segm = new LineSegment(path.get(i), path.get(i+1));
-                ret.add(segm);
-            }
-        }
+        for(int i = 0; i < segms.count; i++)
+            ret.add(segms.lineSegment(i));
         
         return ret;
     }
@@ -0,0 +1,303 @@
+/*
+ * Copyright MapNav contributors 2026
+ *
+ *
+    This file is part of Mapper.
+
+    Mapper is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Mapper is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with Mapper.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+
+package com.example.mapnav;
+
+import java.util.List;
+
+/**
+ * A NavigationalMap rasterized into square cells, for the grid based planners.
+ *
+ * Every cell a wall touches is a wall cell and can not be entered. Cells closer to a wall than
+ * the clearance can be entered, but cost more to cross, so routes keep away from walls where
+ * there is room and still fit through narrow doorways where there is not.
+ *
+ * Cells are numbered row by row, starting from the corner with the smallest coordinates.
+ * All values stored in meters.
+ */
+public class OccupancyGrid
+{
+    // How much more it costs to cross a cell within the clearance of a wall than a free one.
+    static final float NEAR_WALL_COST = 3f;
+
+    private static final byte FREE = 0;
+    private static final byte NEAR_WALL = 1;
+    private static final byte WALL = 2;
+
+    // neighbour offsets; the first four are orthogonal, the last four diagonal
+    private static final int[] DX = {1, 0, -1, 0, 1, -1, -1, 1};
+    private static final int[] DY = {0, 1, 0, -1, 1, 1, -1, -1};
+    private static final float SQRT2 = (float) Math.sqrt(2);
+
+    private final float cellSize, clearance;
+    private final float originX, originY;
+    private final int width, height;
+    private final byte[] cells;
+
+    /**
+     * Rasterizes the walls of a map.
+     * @param map the map
+     * @param cellSize the width of a cell (in meters)
+     * @param clearance the distance routes should keep from walls, where there is room (in meters)
+     */
+    public OccupancyGrid(NavigationalMap map, float cellSize, float clearance)
+    {
+        this.cellSize = cellSize;
+        this.clearance = clearance;
+
+        List<LineSegment> walls = map.getGeometry();
+        float minX = Float.POSITIVE_INFINITY, minY = Float.POSITIVE_INFINITY;
+        float maxX = Float.NEGATIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY;
+        for(LineSegment wall : walls){
+            minX = Math.min(minX, Math.min(wall.start.x, wall.end.x));
+            minY = Math.min(minY, Math.min(wall.start.y, wall.end.y));
+            maxX = Math.max(maxX, Math.max(wall.start.x, wall.end.x));
+            maxY = Math.max(maxY, Math.max(wall.start.y, wall.end.y));
+        }
+        if(walls.isEmpty())
+            minX = minY = maxX = maxY = 0;
+
+        // room for the clearance and one free cell around the outermost walls
+        float margin = clearance + cellSize;
+        originX = minX - margin;
+        originY = minY - margin;
+        width = (int) Math.ceil((maxX - minX + 2 * margin) / cellSize);
+        height = (int) Math.ceil((maxY - minY + 2 * margin) / cellSize);
+        cells = new byte[width * height];
+
+        for(LineSegment wall : walls)
+            rasterize(wall.start.x, wall.start.y, wall.end.x, wall.end.y);
+    }
+
+    public float getCellSize()
+    {
+        return cellSize;
+    }
+
+    public float getClearance()
+    {
+        return clearance;
+    }
+
+    public int getWidth()
+    {
+        return width;
+    }
+
+    public int getHeight()
+    {
+        return height;
+    }
+
+    /** The number of cells in the grid. */
+    int size()
+    {
+        return cells.length;
+    }
+
+    /** The cell containing the point, or -1 if it is outside the grid. */
+    int cellAt(float x, float y)
+    {
+        float col = (x - originX) / cellSize, row = (y - originY) / cellSize;
+        if(!(col >= 0 && col < width && row >= 0 && row < height))
+            return -1;
+        return (int) row * width + (int) col;
+    }
+
+    /** The cell in the given column and row, or -1 if it is outside the grid. */
+    int cell(int col, int row)
+    {
+        if(col < 0 || col >= width || row < 0 || row >= height)
+            return -1;
+        return row * width + col;
+    }
+
+    int column(int cell)
+    {
+        return cell % width;
+    }
+
+    int row(int cell)
+    {
+        return cell / width;
+    }
+
+    float centerX(int cell)
+    {
+        return originX + (cell % width + 0.5f) * cellSize;
+    }
+
+    float centerY(int cell)
+    {
+        return originY + (cell / width + 0.5f) * cellSize;
+    }
+
+    boolean isWall(int cell)
+    {
+        return cells[cell] == WALL;
+    }
+
+    /**
+     * The cost of crossing one meter of the cell. Wall cells are given the near wall cost,
+     * so that a route can still start or end in one.
+     */
+    float costFactor(int cell)
+    {
+        return cells[cell] == FREE ? 1 : NEAR_WALL_COST;
+    }
+
+    /**
+     * Finds the cells that can be entered directly from a cell: the neighbours that are not walls,
+     * where a diagonal step is only allowed if it does not cut the corner of a wall cell.
+     * @param cell the cell to step from
+     * @param next receives the neighbouring cells; at least 8 long
+     * @param cost receives the cost of stepping to each of them; at least 8 long
+     * @return the number of neighbours found
+     */
+    int neighbours(int cell, int[] next, float[] cost)
+    {
+        int col = cell % width, row = cell / width;
+        float factor = costFactor(cell);
+        int count = 0;
+        for(int d = 0; d < 8; d++){
+            int n = cell(col + DX[d], row + DY[d]);
+            if(n == -1 || cells[n] == WALL)
+                continue;
+            if(d >= 4 && (cells[row * width + col + DX[d]] == WALL || cells[(row + DY[d]) * width + col] == WALL))
+                continue;
+            next[count] = n;
+            // half of the step is in each cell
+            cost[count++] = (d >= 4 ? SQRT2 : 1) * cellSize * (factor + costFactor(n)) / 2;
+        }
+        return count;
+    }
+
+    /**
+     * The cost of walking in a straight line between the centers of two cells: the length of the line
+     * within each cell it crosses times that cell's cost factor.
+     * @return the cost, or infinity if the line crosses a wall cell or squeezes between two at a corner
+     */
+    float lineCost(int from, int to)
+    {
+        if(from == to)
+            return 0;
+        int col = from % width, row = from / width;
+        int dx = to % width - col, dy = to / width - row;
+        int stepX = dx > 0 ? 1 : -1, stepY = dy > 0 ? 1 : -1;
+        dx = Math.abs(dx);
+        dy = Math.abs(dy);
+        float length = cellSize * (float) Math.sqrt(dx * dx + dy * dy);
+
+        // The line crosses the k-th column boundary at t = (2k + 1) / (2 dx), and the k-th row
+        // boundary at t = (2k + 1) / (2 dy). Compared with integers, so corners are found exactly.
+        int crossedX = 0, crossedY = 0;
+        float t = 0, cost = 0;
+        int cell = from;
+        while(crossedX < dx || crossedY < dy) {
+            long nextX = crossedX < dx ? (2L * crossedX + 1) * dy : Long.MAX_VALUE;
+            long nextY = crossedY < dy ? (2L * crossedY + 1) * dx : Long.MAX_VALUE;
+            float tNext;
+            if(nextX < nextY) {
+                tNext = (2f * crossedX + 1) / (2f * dx);
+            } else {
+                tNext = (2f * crossedY + 1) / (2f * dy);
+            }
+            cost += (tNext - t) * length * costFactor(cell);
+            t = tNext;
+
+            if(nextX < nextY) {
+                col += stepX;
+                crossedX++;
+            } else if(nextY < nextX) {
+                row += stepY;
+                crossedY++;
+            } else {
+                // through the corner of four cells; the two beside the line must not be walls
+                if(cells[row * width + col + stepX] == WALL || cells[(row + stepY) * width + col] == WALL)
+                    return Float.POSITIVE_INFINITY;
+                col += stepX;
+                row += stepY;
+                crossedX++;
+                crossedY++;
+            }
+            cell = row * width + col;
+            if(cell != to && cells[cell] == WALL)
+                return Float.POSITIVE_INFINITY;
+        }
+        return cost + (1 - t) * length * costFactor(to);
+    }
+
+    /**
+     * Marks the cells around one wall. Works a row of cells at a time, testing only the cells
+     * of the row that are within reach of the part of the wall beside it.
+     */
+    private void rasterize(float x0, float y0, float x1, float y1)
+    {
+        // a wall touches every cell whose center is within half a diagonal of it
+        float touch = cellSize * SQRT2 / 2;
+        float reach = Math.max(clearance, touch);
+        float dx = x1 - x0, dy = y1 - y0;
+
+        int firstRow = Math.max(0, (int) Math.floor((Math.min(y0, y1) - reach - originY) / cellSize));
+        int lastRow = Math.min(height - 1, (int) Math.floor((Math.max(y0, y1) + reach - originY) / cellSize));
+        for(int row = firstRow; row <= lastRow; row++){
+            float cy = originY + (row + 0.5f) * cellSize;
+
+            // the part of the wall within reach of the row's centers, along y
+            float t0 = 0, t1 = 1;
+            if(dy != 0) {
+                float ta = (cy - reach - y0) / dy, tb = (cy + reach - y0) / dy;
+                t0 = Math.max(0, Math.min(ta, tb));
+                t1 = Math.min(1, Math.max(ta, tb));
+                if(t0 > t1)
+                    continue;
+            } else if(Math.abs(cy - y0) > reach) {
+                continue;
+            }
+            float spanMin = Math.min(x0 + t0 * dx, x0 + t1 * dx) - reach;
+            float spanMax = Math.max(x0 + t0 * dx, x0 + t1 * dx) + reach;
+
+            int firstCol = Math.max(0, (int) Math.floor((spanMin - originX) / cellSize));
+            int lastCol = Math.min(width - 1, (int) Math.floor((spanMax - originX) / cellSize));
+            for(int col = firstCol; col <= lastCol; col++){
+                int cell = row * width + col;
+                if(cells[cell] == WALL)
+                    continue;
+                float distance = distanceToSegment(originX + (col + 0.5f) * cellSize, cy, x0, y0, dx, dy);
+                if(distance <= touch)
+                    cells[cell] = WALL;
+                else if(distance <= clearance)
+                    cells[cell] = NEAR_WALL;
+            }
+        }
+    }
+
+    private static float distanceToSegment(float x, float y, float x0, float y0, float dx, float dy)
+    {
+        float lengthSquare = dx * dx + dy * dy;
+        float t = 0;
+        if(lengthSquare > 0)
+            t = Math.max(0, Math.min(1, ((x - x0) * dx + (y - y0) * dy) / lengthSquare));
+        return VectorUtils.distance(x, y, x0 + t * dx, y0 + t * dy);
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright MapNav contributors 2026
+ *
+ *
+    This file is part of Mapper.
+
+    Mapper is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Mapper is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with Mapper.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+
+package com.example.mapnav;
+
+import java.util.AbstractList;
+import java.util.List;
+
+import android.graphics.PointF;
+
+/**
+ * A path whose points are kept and reused from one fill to the next, so refilling it 
+ * with a path no longer than any before allocates nothing.
+ *
+ * The list itself is read-only; it is filled with clear() and add(x, y). The points it 
+ * returns are overwritten by the next fill, so copy them to keep them.
+ */
+final class PathBuffer extends AbstractList<PointF>
+{
+    private PointF[] points;
+    private int size;
+
+    /**
+     * @param capacity the number of points to allocate up front
+     */
+    PathBuffer(int capacity)
+    {
+        points = new PointF[Math.max(2, capacity)];
+        for(int i = 0; i < points.length; i++)
+            points[i] = new PointF();
+    }
+
+    @Override
+    public PointF get(int index)
+    {
+        if(index < 0 || index >= size)
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size);
+        return points[index];
+    }
+
+    @Override
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * Empties the path, keeping its points for reuse.
+     */
+    @Override
+    public void clear()
+    {
+        size = 0;
+    }
+
+    /**
+     * Adds a point to the end of the path.
+     */
+    void add(float x, float y)
+    {
+        if(size == points.length) {
+            PointF[] grown = new PointF[2 * size];
+            System.arraycopy(points, 0, grown, 0, size);
+            for(int i = size; i < grown.length; i++)
+                grown[i] = new PointF();
+            points = grown;
+        }
+        points[size++].set(x, y);
+    }
+
+    /**
+     * Fills the path with copies of the given points.
+     */
+    void set(List<PointF> path)
+    {
+        clear();
+        for(int i = 0; i < path.size(); i++){
+            PointF p = path.get(i);
+            add(p.x, p.y);
+        }
+    }
+
+    /**
+     * Whether the path has exactly the same points as another.
+     */
+    boolean samePoints(List<PointF> path)
+    {
+        if(path.size() != size)
+            return false;
+        for(int i = 0; i < size; i++){
+            PointF p = path.get(i);
+            if(p.x != points[i].x || p.y != points[i].y)
+                return false;
+        }
+        return true;
+    }
+}
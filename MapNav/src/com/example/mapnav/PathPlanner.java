@@ -0,0 +1,282 @@
+/*
+ * Copyright MapNav contributors 2026
+ *
+ *
+    This file is part of Mapper.
+
+    Mapper is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Mapper is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with Mapper.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+package com.example.mapnav;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import android.graphics.PointF;
+
+/**
+ * Finds shortest routes through a NavigationalMap.
+ *
+ * The planner works on a visibility graph: a node is placed just outside every wall corner a route
+ * could bend around, kept clear of the walls by a clearance margin, and nodes that can see each
+ * other are connected. Each query connects the origin and the destination to the graph and runs
+ * A* over it. The nodes are placed when the planner is created; the edges of a node are found
+ * the first time a query reaches it, and kept for later queries.
+ */
+public class PathPlanner
+{
+    // How far from its corner a node is placed, as a multiple of the clearance.
+    private static final float NODE_OFFSET = 1.25f;
+    // Corners that turn by less than this (in radians) are treated as straight walls.
+    private static final float MIN_TURN = 1E-3f;
+
+    private final NavigationalMap map;
+    private final float clearance;
+
+    private final PointF[] nodes;
+    // the nodes each node can see and how far away they are; null until first needed
+    private final int[][] neighbours;
+    private final float[][] neighbourCost;
+
+    /**
+     * Places the graph nodes for a map.
+     * @param map the map to plan routes through
+     * @param clearance the distance routes should keep from wall corners (in meters)
+     */
+    public PathPlanner(NavigationalMap map, float clearance)
+    {
+        this.map = map;
+        this.clearance = clearance;
+
+        nodes = placeNodes(map, clearance);
+        neighbours = new int[nodes.length][];
+        neighbourCost = new float[nodes.length][];
+    }
+
+    /**
+     * Returns the clearance this planner was built with.
+     */
+    public float getClearance()
+    {
+        return clearance;
+    }
+
+    /**
+     * Finds the shortest route between two points that does not cross any wall.
+     * @param origin where the route starts (in meters)
+     * @param dest where the route ends (in meters)
+     * @return The points along the route, starting with origin and ending with dest,
+     * or null if there is no route. The list can be passed straight to MapView.setUserPath.
+     */
+    public List<PointF> plan(PointF origin, PointF dest)
+    {
+        int count = nodes.length;
+        final int originId = count, destId = count + 1;
+
+        // Which nodes the origin and destination can see, and whether they can see each other.
+        PointF[] starts = new PointF[2 * count + 1], ends = new PointF[2 * count + 1];
+        for(int n = 0; n < count; n++){
+            starts[n] = origin;
+            ends[n] = nodes[n];
+            starts[count + n] = dest;
+            ends[count + n] = nodes[n];
+        }
+        starts[2 * count] = origin;
+        ends[2 * count] = dest;
+        boolean[] clear = map.areLinesOfSightClear(starts, ends);
+
+        List<PointF> ret = new ArrayList<PointF>();
+        ret.add(new PointF(origin.x, origin.y));
+        if(clear[2 * count]) {
+            ret.add(new PointF(dest.x, dest.y));
+            return ret;
+        }
+
+        // A*, with the straight-line distance to the destination as the heuristic
+        float[] cost = new float[count + 2];
+        int[] parent = new int[count + 2];
+        boolean[] done = new boolean[count + 2];
+        Arrays.fill(cost, Float.POSITIVE_INFINITY);
+        IndexedMinHeap open = new IndexedMinHeap(count + 2);
+
+        cost[originId] = 0;
+        parent[originId] = -1;
+        open.put(originId, VectorUtils.distance(origin, dest), 0);
+
+        while(!open.isEmpty()) {
+            int u = open.poll();
+            if(u == destId)
+                break;
+            done[u] = true;
+            PointF pu = u == originId ? origin : nodes[u];
+
+            if(u == originId) {
+                for(int n = 0; n < count; n++){
+                    if(clear[n])
+                        relax(open, cost, parent, done, u, n, VectorUtils.distance(origin, nodes[n]), nodes[n], dest);
+                }
+            } else {
+                int[] next = getNeighbours(u);
+                float[] nextCost = neighbourCost[u];
+                for(int e = 0; e < next.length; e++)
+                    relax(open, cost, parent, done, u, next[e], nextCost[e], nodes[next[e]], dest);
+                if(clear[count + u])
+                    relax(open, cost, parent, done, u, destId, VectorUtils.distance(pu, dest), dest, dest);
+            }
+        }
+
+        if(Float.isInfinite(cost[destId]))
+            return null;
+
+        // walk back from the destination
+        int hops = 0;
+        for(int n = parent[destId]; n != originId; n = parent[n])
+            hops++;
+        PointF[] route = new PointF[hops];
+        for(int n = parent[destId]; n != originId; n = parent[n])
+            route[--hops] = nodes[n];
+
+        for(PointF p : route)
+            ret.add(new PointF(p.x, p.y));
+        ret.add(new PointF(dest.x, dest.y));
+        return ret;
+    }
+
+    /**
+     * Returns the nodes that node n can see, finding them with one batch of rays the first time.
+     */
+    private synchronized int[] getNeighbours(int n)
+    {
+        if(neighbours[n] == null) {
+            int count = nodes.length;
+            PointF[] starts = new PointF[count];
+            Arrays.fill(starts, nodes[n]);
+            boolean[] clear = map.areLinesOfSightClear(starts, nodes);
+
+            int visible = 0;
+            for(int k = 0; k < count; k++){
+                if(clear[k] && k != n)
+                    visible++;
+            }
+            int[] next = new int[visible];
+            float[] nextCost = new float[visible];
+            visible = 0;
+            for(int k = 0; k < count; k++){
+                if(clear[k] && k != n) {
+                    next[visible] = k;
+                    nextCost[visible++] = VectorUtils.distance(nodes[n], nodes[k]);
+                }
+            }
+            neighbourCost[n] = nextCost;
+            neighbours[n] = next;
+        }
+        return neighbours[n];
+    }
+
+    private static void relax(IndexedMinHeap open, float[] cost, int[] parent, boolean[] done,
+            int from, int to, float step, PointF toPoint, PointF dest)
+    {
+        if(done[to])
+            return;
+        float c = cost[from] + step;
+        if(c < cost[to]) {
+            cost[to] = c;
+            parent[to] = from;
+            open.put(to, c + VectorUtils.distance(toPoint, dest), c);
+        }
+    }
+
+    /**
+     * The directions of the walls that meet at one corner of the map.
+     */
+    private static class Corner
+    {
+        final float x, y;
+        float[] angles = new float[4];
+        int degree;
+
+        Corner(float x, float y) {
+            this.x = x;
+            this.y = y;
+        }
+
+        void addWall(float towardX, float towardY) {
+            if(towardX == x && towardY == y)
+                return;
+            if(degree == angles.length) {
+                float[] grown = new float[2 * degree];
+                System.arraycopy(angles, 0, grown, 0, degree);
+                angles = grown;
+            }
+            angles[degree++] = (float) Math.atan2(towardY - y, towardX - x);
+        }
+    }
+
+    /**
+     * Places nodes around the corners of the map. A route can only bend around a corner on the
+     * side where the walls leave more than half a turn free, so nodes go in those gaps,
+     * and only where no wall comes within the clearance.
+     */
+    private static PointF[] placeNodes(NavigationalMap map, float clearance)
+    {
+        Map<Long, Corner> corners = new LinkedHashMap<Long, Corner>();
+        for(LineSegment segm : map.getGeometry()){
+            corner(corners, segm.start).addWall(segm.end.x, segm.end.y);
+            corner(corners, segm.end).addWall(segm.start.x, segm.start.y);
+        }
+
+        List<PointF> ret = new ArrayList<PointF>();
+        float offset = NODE_OFFSET * clearance;
+        for(Corner c : corners.values()){
+            Arrays.sort(c.angles, 0, c.degree);
+
+            for(int k = 0; k < c.degree; k++){
+                float start = c.angles[k];
+                float next = k + 1 < c.degree ? c.angles[k + 1] : c.angles[0] + 2 * (float) Math.PI;
+                float gap = next - start;
+                if(gap <= Math.PI + MIN_TURN)
+                    continue;
+
+                // Every wall at the corner is more than a quarter turn away from the middle of the gap, 
+                // so a node there is offset away from all of them.
+                addNode(map, ret, c, start + gap / 2, offset, clearance);
+            }
+        }
+        return ret.toArray(new PointF[ret.size()]);
+    }
+
+    private static Corner corner(Map<Long, Corner> corners, PointF p)
+    {
+        // + 0.0f so that -0.0f and 0.0f are the same corner
+        Long key = ((long) Float.floatToIntBits(p.x + 0.0f) << 32) | (Float.floatToIntBits(p.y + 0.0f) & 0xffffffffL);
+        Corner c = corners.get(key);
+        if(c == null) {
+            c = new Corner(p.x, p.y);
+            corners.put(key, c);
+        }
+        return c;
+    }
+
+    private static void addNode(NavigationalMap map, List<PointF> nodes, Corner c, float angle, float offset, float clearance)
+    {
+        PointF node = new PointF(c.x + offset * (float) Math.cos(angle), c.y + offset * (float) Math.sin(angle));
+        if(map.isPointClear(node, clearance))
+            nodes.add(node);
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright MapNav contributors 2026
+ *
+ *
+    This file is part of Mapper.
+
+    Mapper is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Mapper is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with Mapper.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+
+package com.example.mapnav;
+
+/**
+ * Detects steps as a peak followed by a trough in the smoothed vertical acceleration.
+ *
+ * The vertical acceleration, less an offset, is smoothed with an exponential filter. A step starts 
+ * when the smoothed value rises above 1 while the phone also swings sideways, reaches its trough 
+ * when it falls below -0.5, and is complete once it settles back in between. Samples taken while 
+ * the phone rotates quickly around x or y are not counted towards a step, and very fast rotation 
+ * abandons the step in progress, so turning the phone over is not taken for walking.
+ */
+public class PeakTroughStepDetector implements StepDetector
+{
+    // subtracted from the vertical acceleration before smoothing
+    private static final int offset = 1;
+    private static final float alpha = 0.35f;
+    // the smoothed acceleration must rise above PEAK, fall below TROUGH, then settle in between
+    private static final float PEAK = 1, TROUGH = -.5f;
+    // the sideways acceleration needed at the peak
+    private static final float SWING = 1.5f;
+    // rotation rates (rad/s) above which samples are ignored, and above which a step is abandoned
+    private static final float STEADY = 2.5f, SPINNING = 5;
+
+    private final float[] store = new float[3];
+    private float previousOutputz;
+    private boolean highPoint, lowPoint, endPoint;
+    private double z;
+
+    @Override
+    public boolean addSample(long timestamp, float ax, float ay, float az, float gx, float gy, float gz)
+    {
+        store [2] = store [1];
+        store [1] = store [0];
+        store [0] = az - offset;
+
+        // Smooth out acceleration
+        z = alpha * store[0] + (1 - alpha) * previousOutputz;
+        previousOutputz = (float) z;
+
+        boolean steady = Math.abs(gx) < STEADY && Math.abs(gy) < STEADY;
+
+        // State machine to detect footsteps
+        if ( z > PEAK && Math.abs(ay) > SWING && steady) 
+        {
+            highPoint = true;
+        }
+        else if ( z < TROUGH && highPoint && steady) 
+        {
+            lowPoint = true;
+        }
+        else if ( z < PEAK && z > TROUGH && highPoint && lowPoint && steady)
+        {
+            endPoint = true;
+        }
+
+        if( Math.abs(gx) > SPINNING || Math.abs(gy) > SPINNING) 
+        {
+            highPoint = lowPoint = endPoint=  false;
+        }
+
+        if (highPoint && lowPoint && endPoint )
+        {
+            highPoint = lowPoint = endPoint = false;
+            return true;
+        }
+        return false;
+    }
+
+    @Override
+    public float getSignal()
+    {
+        return (float) z;
+    }
+
+    @Override
+    public void reset()
+    {
+        store[0] = store[1] = store[2] = 0;
+        previousOutputz = 0;
+        z = 0;
+        highPoint = lowPoint = endPoint = false;
+    }
+}
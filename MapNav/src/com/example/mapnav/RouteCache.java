@@ -0,0 +1,183 @@
+/*
+ * Copyright MapNav contributors 2026
+ *
+ *
+    This file is part of Mapper.
+
+    Mapper is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Mapper is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with Mapper.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+
+package com.example.mapnav;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import android.graphics.PointF;
+
+/**
+ * Remembers recently planned routes, so that a trip that has been planned before is not planned again.
+ *
+ * Routes are looked up by the cells of a square grid that the origin and destination fall in, so a
+ * route is reused by anyone starting and ending near where it did. The ends of a reused route are
+ * moved to the actual origin and destination, as long as the map allows it.
+ *
+ * When the cache is full the least recently used route is dropped. Routes are only valid for
+ * the map they were planned on, so a new map needs a new cache.
+ */
+public class RouteCache
+{
+    private final int capacity;
+    private final float cellSize;
+    private final LinkedHashMap<Key, List<PointF>> routes;
+    // reused for lookups, so that they allocate nothing
+    private final Key probe = new Key();
+    private final NavigationalMap map;
+    private int hits, misses;
+
+    /**
+     * Creates an empty cache.
+     * @param map the map routes are planned on
+     * @param capacity the most routes to keep
+     * @param cellSize the width of the grid cells origins and destinations are matched by (in meters)
+     */
+    public RouteCache(NavigationalMap map, int capacity, float cellSize)
+    {
+        this.map = map;
+        this.capacity = capacity;
+        this.cellSize = cellSize;
+        // access order, so the eldest entry is the least recently used one
+        routes = new LinkedHashMap<Key, List<PointF>>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, List<PointF>> eldest) {
+                return size() > RouteCache.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * Looks up a route.
+     * @param origin where the route should start (in meters)
+     * @param dest where the route should end (in meters)
+     * @param out filled with the points along the route, starting with origin and ending with dest
+     * @return whether a route near origin and dest was cached; if not, out is left as it was
+     */
+    public synchronized boolean get(PointF origin, PointF dest, PathBuffer out)
+    {
+        List<PointF> route = lookup(origin, dest);
+        if(route == null)
+            return false;
+
+        out.clear();
+        out.add(origin.x, origin.y);
+        for(int i = 1; i < route.size() - 1; i++){
+            PointF p = route.get(i);
+            out.add(p.x, p.y);
+        }
+        out.add(dest.x, dest.y);
+        return true;
+    }
+
+    private List<PointF> lookup(PointF origin, PointF dest)
+    {
+        probe.set(origin, dest, cellSize);
+        List<PointF> route = routes.get(probe);
+        // the cached route must still work from exactly where we are to exactly where we are going;
+        // a straight route is handed back as just origin and dest, so that is the leg to check
+        if(route == null || (route.size() == 2 ? !map.isLineOfSightClear(origin, dest) :
+                !map.isLineOfSightClear(origin, route.get(1)) ||
+                !map.isLineOfSightClear(route.get(route.size() - 2), dest))) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return route;
+    }
+
+    /**
+     * Adds a planned route to the cache.
+     * @param origin where the route was planned from (in meters)
+     * @param dest where the route was planned to (in meters)
+     * @param route the route, as returned by the planner; at least two points long
+     */
+    public synchronized void put(PointF origin, PointF dest, List<PointF> route)
+    {
+        List<PointF> copy = new ArrayList<PointF>(route.size());
+        for(PointF p : route)
+            copy.add(new PointF(p.x, p.y));
+        Key key = new Key();
+        key.set(origin, dest, cellSize);
+        routes.put(key, copy);
+    }
+
+    /**
+     * Drops every route. Call when the map changes in a way routes depend on.
+     */
+    public synchronized void invalidate()
+    {
+        routes.clear();
+    }
+
+    /** The number of lookups that found a route. */
+    public synchronized int getHits()
+    {
+        return hits;
+    }
+
+    /** The number of lookups that did not find a route. */
+    public synchronized int getMisses()
+    {
+        return misses;
+    }
+
+    /** The number of routes in the cache. */
+    public synchronized int size()
+    {
+        return routes.size();
+    }
+
+    /**
+     * The grid cells a route starts and ends in.
+     */
+    private static final class Key
+    {
+        private int originX, originY, destX, destY;
+
+        void set(PointF origin, PointF dest, float cellSize) {
+            originX = (int) Math.floor(origin.x / cellSize);
+            originY = (int) Math.floor(origin.y / cellSize);
+            destX = (int) Math.floor(dest.x / cellSize);
+            destY = (int) Math.floor(dest.y / cellSize);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if(!(o instanceof Key))
+                return false;
+            Key k = (Key) o;
+            return originX == k.originX && originY == k.originY && destX == k.destX && destY == k.destY;
+        }
+
+        @Override
+        public int hashCode() {
+            return ((originX * 31 + originY) * 31 + destX) * 31 + destY;
+        }
+    }
+}
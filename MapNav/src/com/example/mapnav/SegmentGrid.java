@@ -0,0 +1,363 @@
+/*
+ * Copyright MapNav contributors 2026
+ *
+ *
+    This file is part of Mapper.
+
+    Mapper is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Mapper is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with Mapper.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+package com.example.mapnav;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * A uniform grid over the segments of a map. Each cell lists the segments that pass through it,
+ * so a query only has to look at the segments in the cells it crosses.
+ *
+ * Segments are identified by their index in the arrays the grid was built from.
+ */
+class SegmentGrid
+{
+    // Slack added around every segment and query, in meters. It is larger than the tolerance
+    // LineSegment uses when deciding whether a point is on a segment, so nothing is missed.
+    private static final float PAD = 1E-3f;
+    private static final int MAX_CELLS_PER_AXIS = 1024;
+
+    private final float originX, originY, cellSize;
+    private final int cols, rows;
+
+    // cellItems[cellStart[c] .. cellStart[c+1]) are the segments in cell c.
+    private final int[] cellStart;
+    private final int[] cellItems;
+    private final int segmentCount;
+
+    // LineSegment.findIntercept reports a hit for any two vertical (or horizontal) segments on the
+    // same line, however far apart they are. Those are kept here, sorted by their x (or y) value.
+    private final float[] verticalKeys, horizontalKeys;
+    private final int[] verticalIds, horizontalIds;
+
+    /**
+     * Per-query scratch space. Not thread safe; use one per thread.
+     */
+    static final class Scratch
+    {
+        int[] ids = new int[16];
+        int size;
+        // for each collected id, a bit for every query (of up to 64) that collected it
+        final long[] queries;
+
+        private final int[] marks;
+        private int stamp;
+
+        private Scratch(int segmentCount) {
+            marks = new int[segmentCount];
+            queries = new long[segmentCount];
+        }
+
+        /** Clears the collected ids. */
+        void reset() {
+            size = 0;
+            if(++stamp == 0) {
+                Arrays.fill(marks, 0);
+                stamp = 1;
+            }
+        }
+
+        private void add(int id, long query) {
+            if(marks[id] == stamp) {
+                queries[id] |= query;
+                return;
+            }
+            marks[id] = stamp;
+            queries[id] = query;
+            if(size == ids.length) {
+                int[] grown = new int[size * 2];
+                System.arraycopy(ids, 0, grown, 0, size);
+                ids = grown;
+            }
+            ids[size++] = id;
+        }
+    }
+
+    /**
+     * Builds a grid over the given segments.
+     * @param x0 start x coordinates
+     * @param y0 start y coordinates
+     * @param x1 end x coordinates
+     * @param y1 end y coordinates
+     * @param m slopes, as calculated by LineSegment
+     * @param count the number of segments
+     */
+    SegmentGrid(float[] x0, float[] y0, float[] x1, float[] y1, float[] m, int count)
+    {
+        segmentCount = count;
+
+        float minX = Float.POSITIVE_INFINITY, minY = Float.POSITIVE_INFINITY;
+        float maxX = Float.NEGATIVE_INFINITY, maxY = Float.NEGATIVE_INFINITY;
+        for(int i = 0; i < count; i++){
+            minX = Math.min(minX, Math.min(x0[i], x1[i]));
+            minY = Math.min(minY, Math.min(y0[i], y1[i]));
+            maxX = Math.max(maxX, Math.max(x0[i], x1[i]));
+            maxY = Math.max(maxY, Math.max(y0[i], y1[i]));
+        }
+        if(count == 0) {
+            minX = minY = maxX = maxY = 0;
+        }
+
+        float width = maxX - minX + 2 * PAD;
+        float height = maxY - minY + 2 * PAD;
+
+        // Aim for roughly one segment per cell, without letting the grid get too large.
+        float size = (float) Math.sqrt(width * height / Math.max(count, 1));
+        size = Math.max(size, Math.max(width, height) / MAX_CELLS_PER_AXIS);
+        if(!(size > 0))
+            size = 1;
+
+        cellSize = size;
+        originX = minX - PAD;
+        originY = minY - PAD;
+        cols = Math.min((int) (width / cellSize) + 1, MAX_CELLS_PER_AXIS);
+        rows = Math.min((int) (height / cellSize) + 1, MAX_CELLS_PER_AXIS);
+
+        // Two passes: count the entries for each cell, then fill them in.
+        int[] counts = new int[cols * rows + 1];
+        for(int i = 0; i < count; i++)
+            rasterize(x0[i], y0[i], x1[i], y1[i], counts, null, i, null);
+
+        cellStart = new int[cols * rows + 1];
+        for(int c = 0; c < cols * rows; c++)
+            cellStart[c + 1] = cellStart[c] + counts[c];
+
+        cellItems = new int[cellStart[cols * rows]];
+        int[] cursor = new int[cols * rows];
+        System.arraycopy(cellStart, 0, cursor, 0, cols * rows);
+        for(int i = 0; i < count; i++)
+            rasterize(x0[i], y0[i], x1[i], y1[i], null, cursor, i, null);
+
+        int vertical = 0, horizontal = 0;
+        for(int i = 0; i < count; i++){
+            if(Float.isInfinite(m[i]))
+                vertical++;
+            else if(m[i] == 0)
+                horizontal++;
+        }
+        verticalKeys = new float[vertical];
+        verticalIds = new int[vertical];
+        horizontalKeys = new float[horizontal];
+        horizontalIds = new int[horizontal];
+
+        long[] sortable = new long[Math.max(vertical, horizontal)];
+        vertical = horizontal = 0;
+        for(int i = 0; i < count; i++){
+            if(Float.isInfinite(m[i]))
+                sortable[vertical++] = key(x0[i], i);
+        }
+        fillAxis(sortable, vertical, verticalKeys, verticalIds);
+        for(int i = 0; i < count; i++){
+            if(m[i] == 0)
+                sortable[horizontal++] = key(y0[i], i);
+        }
+        fillAxis(sortable, horizontal, horizontalKeys, horizontalIds);
+    }
+
+    private SegmentGrid(float originX, float originY, float cellSize, int cols, int rows, int[] cellStart, int[] cellItems,
+            int segmentCount, float[] verticalKeys, int[] verticalIds, float[] horizontalKeys, int[] horizontalIds)
+    {
+        this.originX = originX;
+        this.originY = originY;
+        this.cellSize = cellSize;
+        this.cols = cols;
+        this.rows = rows;
+        this.cellStart = cellStart;
+        this.cellItems = cellItems;
+        this.segmentCount = segmentCount;
+        this.verticalKeys = verticalKeys;
+        this.verticalIds = verticalIds;
+        this.horizontalKeys = horizontalKeys;
+        this.horizontalIds = horizontalIds;
+    }
+
+    /**
+     * The number of bytes write() puts.
+     */
+    int byteSize()
+    {
+        return 4 * (8 + cellStart.length + cellItems.length + 2 * verticalKeys.length + 2 * horizontalKeys.length);
+    }
+
+    /**
+     * Writes the grid to a buffer, to be read back by read().
+     */
+    void write(ByteBuffer out)
+    {
+        out.putFloat(originX).putFloat(originY).putFloat(cellSize);
+        out.putInt(cols).putInt(rows).putInt(cellItems.length).putInt(verticalKeys.length).putInt(horizontalKeys.length);
+        MapFile.putInts(out, cellStart);
+        MapFile.putInts(out, cellItems);
+        MapFile.putFloats(out, verticalKeys);
+        MapFile.putInts(out, verticalIds);
+        MapFile.putFloats(out, horizontalKeys);
+        MapFile.putInts(out, horizontalIds);
+    }
+
+    /**
+     * Reads a grid written by write().
+     * @param segmentCount the number of segments the grid was built over
+     */
+    static SegmentGrid read(ByteBuffer in, int segmentCount)
+    {
+        float originX = in.getFloat(), originY = in.getFloat(), cellSize = in.getFloat();
+        int cols = in.getInt(), rows = in.getInt(), items = in.getInt(), vertical = in.getInt(), horizontal = in.getInt();
+        int[] cellStart = MapFile.getInts(in, cols * rows + 1);
+        int[] cellItems = MapFile.getInts(in, items);
+        float[] verticalKeys = MapFile.getFloats(in, vertical);
+        int[] verticalIds = MapFile.getInts(in, vertical);
+        float[] horizontalKeys = MapFile.getFloats(in, horizontal);
+        int[] horizontalIds = MapFile.getInts(in, horizontal);
+        return new SegmentGrid(originX, originY, cellSize, cols, rows, cellStart, cellItems,
+                segmentCount, verticalKeys, verticalIds, horizontalKeys, horizontalIds);
+    }
+
+    /**
+     * Creates scratch space for querying this grid.
+     */
+    Scratch newScratch()
+    {
+        return new Scratch(segmentCount);
+    }
+
+    /**
+     * Collects every segment that may intersect the given query segment into scratch, sorted by index.
+     * Segments that are not returned are guaranteed not to intersect the query.
+     * @param m the slope of the query segment, as calculated by LineSegment
+     */
+    void collect(float sx, float sy, float ex, float ey, float m, Scratch scratch)
+    {
+        scratch.reset();
+        collectMore(sx, sy, ex, ey, m, 1, scratch);
+        Arrays.sort(scratch.ids, 0, scratch.size);
+    }
+
+    /**
+     * Adds the candidates for another query to those already in scratch. The result is not sorted.
+     * @param query the bit to set in scratch.queries for each candidate of this query
+     */
+    void collectMore(float sx, float sy, float ex, float ey, float m, long query, Scratch scratch)
+    {
+        rasterize(sx, sy, ex, ey, null, null, query, scratch);
+
+        if(Float.isInfinite(m))
+            addEqual(verticalKeys, verticalIds, sx, query, scratch);
+        else if(m == 0)
+            addEqual(horizontalKeys, horizontalIds, sy, query, scratch);
+    }
+
+    /**
+     * Collects every segment that may pass through the given rectangle into scratch, sorted by index.
+     */
+    void collectBox(float minX, float minY, float maxX, float maxY, Scratch scratch)
+    {
+        scratch.reset();
+        int firstRow = clamp((int) Math.floor((minY - PAD - originY) / cellSize), rows);
+        int lastRow = clamp((int) Math.floor((maxY + PAD - originY) / cellSize), rows);
+        int firstCol = clamp((int) Math.floor((minX - PAD - originX) / cellSize), cols);
+        int lastCol = clamp((int) Math.floor((maxX + PAD - originX) / cellSize), cols);
+
+        for(int r = firstRow; r <= lastRow; r++){
+            for(int c = r * cols + firstCol; c <= r * cols + lastCol; c++){
+                for(int k = cellStart[c]; k < cellStart[c + 1]; k++)
+                    scratch.add(cellItems[k], 1);
+            }
+        }
+        Arrays.sort(scratch.ids, 0, scratch.size);
+    }
+
+    /**
+     * Visits the cells a segment passes through, a row at a time. Depending on which argument is
+     * non-null, the cells are counted, filled with id, or their contents are added to scratch as 
+     * candidates of query id.
+     */
+    private void rasterize(float ax, float ay, float bx, float by, int[] counts, int[] cursor, long id, Scratch scratch)
+    {
+        float minY = Math.min(ay, by), maxY = Math.max(ay, by);
+        int firstRow = clamp((int) Math.floor((minY - PAD - originY) / cellSize), rows);
+        int lastRow = clamp((int) Math.floor((maxY + PAD - originY) / cellSize), rows);
+
+        for(int r = firstRow; r <= lastRow; r++){
+            float xa = ax, xb = bx;
+            if(ay != by) {
+                // the part of the segment that lies within this row
+                float top = Math.max(minY, originY + r * cellSize - PAD);
+                float bottom = Math.min(maxY, originY + (r + 1) * cellSize + PAD);
+                xa = ax + (bx - ax) * ((top - ay) / (by - ay));
+                xb = ax + (bx - ax) * ((bottom - ay) / (by - ay));
+            }
+            int firstCol = clamp((int) Math.floor((Math.min(xa, xb) - PAD - originX) / cellSize), cols);
+            int lastCol = clamp((int) Math.floor((Math.max(xa, xb) + PAD - originX) / cellSize), cols);
+
+            for(int c = r * cols + firstCol; c <= r * cols + lastCol; c++){
+                if(counts != null) {
+                    counts[c]++;
+                } else if(cursor != null) {
+                    cellItems[cursor[c]++] = (int) id;
+                } else {
+                    for(int k = cellStart[c]; k < cellStart[c + 1]; k++)
+                        scratch.add(cellItems[k], id);
+                }
+            }
+        }
+    }
+
+    private static int clamp(int cell, int limit)
+    {
+        return Math.max(0, Math.min(limit - 1, cell));
+    }
+
+    private static void addEqual(float[] keys, int[] ids, float value, long query, Scratch scratch)
+    {
+        // -0.0f is stored as 0.0f, as == does not tell them apart.
+        value += 0.0f;
+        int i = Arrays.binarySearch(keys, value);
+        if(i < 0)
+            return;
+        while(i > 0 && keys[i - 1] == value)
+            i--;
+        for(; i < keys.length && keys[i] == value; i++)
+            scratch.add(ids[i], query);
+    }
+
+    // Packs a coordinate and a segment id so that sorting the longs sorts by coordinate.
+    private static long key(float value, int id)
+    {
+        int bits = Float.floatToIntBits(value + 0.0f);
+        // flip the bits of negative floats so that their integer order matches their float order
+        bits ^= (bits >> 31) & 0x7fffffff;
+        return ((long) bits << 32) | id;
+    }
+
+    private static void fillAxis(long[] sortable, int count, float[] keys, int[] ids)
+    {
+        Arrays.sort(sortable, 0, count);
+        for(int i = 0; i < count; i++){
+            int bits = (int) (sortable[i] >> 32);
+            bits ^= (bits >> 31) & 0x7fffffff;
+            keys[i] = Float.intBitsToFloat(bits);
+            ids[i] = (int) sortable[i];
+        }
+    }
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright MapNav contributors 2026
+ *
+ *
+    This file is part of Mapper.
+
+    Mapper is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Mapper is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with Mapper.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+package com.example.mapnav;
+
+/**
+ * The walls of a map compiled into flat arrays, one entry per line segment.
+ * Everything a query needs about a segment is calculated once, here, so that queries do not allocate.
+ *
+ * All values stored in meters.
+ */
+class SegmentStore
+{
+    // How far a query may be from a segment's line or bounding box and still be tested exactly.
+    // Larger than the tolerance LineSegment uses, so no intercept it would find is rejected.
+    private static final float SLACK = 1E-3f;
+
+    final int count;
+
+    // endpoints
+    final float[] x0, y0, x1, y1;
+    // end - start
+    final float[] dx, dy;
+    // bounding box
+    final float[] minX, minY, maxX, maxY;
+    // as in, y = mx + b; the same values LineSegment calculates
+    final float[] m, b;
+    // the line as nx * x + ny * y = c, where (nx, ny) is a unit normal
+    final float[] nx, ny, c;
+
+    /**
+     * Compiles the segments of a set of paths.
+     * @param coords the x and y coordinates of every vertex, path after path
+     * @param pathStarts the index of the first vertex of each path; pathStarts[pathCount] is the number of vertices
+     * @param pathCount the number of paths
+     */
+    SegmentStore(float[] coords, int[] pathStarts, int pathCount)
+    {
+        int n = 0;
+        for(int p = 0; p < pathCount; p++)
+            n += Math.max(0, pathStarts[p + 1] - pathStarts[p] - 1);
+        count = n;
+
+        x0 = new float[n]; y0 = new float[n]; x1 = new float[n]; y1 = new float[n];
+        dx = new float[n]; dy = new float[n];
+        minX = new float[n]; minY = new float[n]; maxX = new float[n]; maxY = new float[n];
+        m = new float[n]; b = new float[n];
+        nx = new float[n]; ny = new float[n]; c = new float[n];
+
+        int i = 0;
+        for(int p = 0; p < pathCount; p++){
+            for(int v = pathStarts[p]; v < pathStarts[p + 1] - 1; v++, i++){
+                x0[i] = coords[2 * v];
+                y0[i] = coords[2 * v + 1];
+                x1[i] = coords[2 * v + 2];
+                y1[i] = coords[2 * v + 3];
+
+                dx[i] = x1[i] - x0[i];
+                dy[i] = y1[i] - y0[i];
+
+                minX[i] = Math.min(x0[i], x1[i]);
+                minY[i] = Math.min(y0[i], y1[i]);
+                maxX[i] = Math.max(x0[i], x1[i]);
+                maxY[i] = Math.max(y0[i], y1[i]);
+
+                m[i] = LineSegment.slope(x0[i], y0[i], x1[i], y1[i]);
+                b[i] = LineSegment.intercept(x0[i], y0[i], m[i]);
+
+                // NaN for zero length segments, which makes every comparison against them false
+                float length = (float) Math.sqrt(dx[i] * dx[i] + dy[i] * dy[i]);
+                nx[i] = -dy[i] / length;
+                ny[i] = dx[i] / length;
+                c[i] = nx[i] * x0[i] + ny[i] * y0[i];
+            }
+        }
+    }
+
+    /**
+     * Creates a LineSegment for segment i.
+     */
+    LineSegment lineSegment(int i)
+    {
+        return new LineSegment(x0[i], y0[i], x1[i], y1[i]);
+    }
+
+    /**
+     * A cheap test that rules out most segments that do not intersect the query.
+     * Returns true for every segment that findIntercept could report.
+     * @param qm the slope of the query
+     */
+    boolean mayIntersect(int i, float sx, float sy, float ex, float ey, float qm)
+    {
+        // collinear vertical or horizontal lines count as intersecting wherever they are
+        if(Float.isInfinite(qm) && Float.isInfinite(m[i]) || qm == 0 && m[i] == 0)
+            return true;
+
+        if(Math.max(sx, ex) < minX[i] - SLACK || Math.min(sx, ex) > maxX[i] + SLACK ||
+                Math.max(sy, ey) < minY[i] - SLACK || Math.min(sy, ey) > maxY[i] + SLACK)
+            return false;
+
+        // both ends of the query on the same side of the segment's line
+        float side0 = nx[i] * sx + ny[i] * sy - c[i];
+        float side1 = nx[i] * ex + ny[i] * ey - c[i];
+        return !(side0 > SLACK && side1 > SLACK || side0 < -SLACK && side1 < -SLACK);
+    }
+
+    /**
+     * The distance from the point to the closest point of segment i.
+     */
+    float distanceTo(int i, float x, float y)
+    {
+        float lengthSquare = dx[i] * dx[i] + dy[i] * dy[i];
+        float t = 0;
+        if(lengthSquare > 0)
+            t = Math.max(0, Math.min(1, ((x - x0[i]) * dx[i] + (y - y0[i]) * dy[i]) / lengthSquare));
+        return VectorUtils.distance(x, y, x0[i] + t * dx[i], y0[i] + t * dy[i]);
+    }
+
+    /**
+     * LineSegment.findIntercept between the query (as this) and segment i (as other).
+     */
+    int findIntercept(int i, float sx, float sy, float ex, float ey, float qm, float qb, float[] point)
+    {
+        return LineSegment.findIntercept(sx, sy, ex, ey, qm, qb, x0[i], y0[i], x1[i], y1[i], m[i], b[i], point);
+    }
+
+    /**
+     * LineSegment.theSame between segment i and the query.
+     */
+    boolean theSame(int i, float sx, float sy, float ex, float ey, float qm, float qb)
+    {
+        return LineSegment.theSame(x0[i], y0[i], x1[i], y1[i], m[i], b[i], sx, sy, ex, ey, qm, qb);
+    }
+
+    /**
+     * LineSegment.containsPoint for segment i.
+     */
+    boolean containsPoint(int i, float x, float y)
+    {
+        return LineSegment.containsPoint(x0[i], y0[i], x1[i], y1[i], m[i], b[i], x, y);
+    }
+}
@@ -0,0 +1,159 @@
+/*
+ * Copyright MapNav contributors 2026
+ *
+ *
+    This file is part of Mapper.
+
+    Mapper is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Mapper is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with Mapper.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+
+package com.example.mapnav;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A fixed-size queue of sensor samples, handed from the thread sensor events arrive on to the thread 
+ * that processes them.
+ *
+ * Samples are stored in primitive arrays, and neither side locks or allocates: the producer only 
+ * copies the event's values into the next free slot, and the consumer copies them out again. 
+ * There must be exactly one producer thread and one consumer thread. When the queue is full, 
+ * new samples are dropped and counted rather than waited for.
+ */
+class SensorSampleRing
+{
+    // values kept per sample; every sensor the app listens to has three
+    static final int VALUES = 3;
+
+    private final int mask;
+    private final int[] types;
+    private final long[] timestamps;
+    private final long[] received;
+    private final float[] values;
+
+    // the number of samples ever added, and ever taken; each is written by one side only
+    private final AtomicLong tail = new AtomicLong(), head = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    private volatile Thread consumer;
+    private volatile boolean consumerWaiting;
+
+    /**
+     * One sample, as the consumer reads it. Reused from sample to sample.
+     */
+    static final class Sample
+    {
+        // the Sensor.TYPE_ constant of the sensor it came from
+        int type;
+        // the event's own timestamp, in nanoseconds
+        long timestamp;
+        // when it was added to the queue, in System.nanoTime() nanoseconds
+        long received;
+        final float[] values = new float[VALUES];
+    }
+
+    /**
+     * @param capacity the number of samples the queue holds; rounded up to a power of two
+     */
+    SensorSampleRing(int capacity)
+    {
+        int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+        mask = size - 1;
+        types = new int[size];
+        timestamps = new long[size];
+        received = new long[size];
+        values = new float[VALUES * size];
+    }
+
+    /**
+     * Adds a sample. Producer thread only.
+     * @param values the sensor's values; the first VALUES are kept, and missing ones are 0
+     * @return false if the queue was full and the sample was dropped
+     */
+    boolean offer(int type, long timestamp, float[] values)
+    {
+        long t = tail.get();
+        if(t - head.get() > mask) {
+            dropped.lazySet(dropped.get() + 1);
+            return false;
+        }
+
+        int slot = (int) t & mask;
+        types[slot] = type;
+        timestamps[slot] = timestamp;
+        received[slot] = System.nanoTime();
+        for(int i = 0; i < VALUES; i++)
+            this.values[VALUES * slot + i] = i < values.length ? values[i] : 0;
+        // a full write, so that the consumer cannot decide to wait after this sample was added
+        tail.set(t + 1);
+
+        if(consumerWaiting)
+            LockSupport.unpark(consumer);
+        return true;
+    }
+
+    /**
+     * Takes the oldest sample. Consumer thread only.
+     * @param out filled with the sample
+     * @return false if there was none
+     */
+    boolean poll(Sample out)
+    {
+        long h = head.get();
+        if(h == tail.get())
+            return false;
+
+        int slot = (int) h & mask;
+        out.type = types[slot];
+        out.timestamp = timestamps[slot];
+        out.received = received[slot];
+        System.arraycopy(values, VALUES * slot, out.values, 0, VALUES);
+        head.lazySet(h + 1);
+        return true;
+    }
+
+    /**
+     * Waits until a sample is added, wake() is called, or the timeout passes. Consumer thread only.
+     */
+    void await(long timeoutNanos)
+    {
+        consumer = Thread.currentThread();
+        consumerWaiting = true;
+        if(head.get() == tail.get())
+            LockSupport.parkNanos(this, timeoutNanos);
+        consumerWaiting = false;
+    }
+
+    /**
+     * Wakes the consumer if it is waiting. Any thread.
+     */
+    void wake()
+    {
+        Thread t = consumer;
+        if(t != null)
+            LockSupport.unpark(t);
+    }
+
+    /**
+     * The number of samples dropped because the queue was full.
+     */
+    long getDropped()
+    {
+        return dropped.get();
+    }
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright MapNav contributors 2026
+ *
+ *
+    This file is part of Mapper.
+
+    Mapper is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Mapper is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with Mapper.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+
+package com.example.mapnav;
+
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * A recorded stream of sensor samples, read into memory for replaying.
+ *
+ * Traces are either binary or CSV. A binary trace is little endian and holds a header (MAGIC, 
+ * VERSION, RECORD_SIZE, the number of records the file has room for, and the number of records 
+ * ever written to it) followed by fixed-size records: the timestamp, the Sensor.TYPE_ constant, 
+ * and three values. Once the file is full, recording wraps around and overwrites the oldest 
+ * records, so the oldest one still there follows the newest.
+ *
+ * A CSV trace has one sample per line: timestamp,type,x,y,z. Lines starting with # are skipped. 
+ * Either kind may mark where steps really happened with records of type STEP, for measuring how 
+ * well a StepDetector does.
+ */
+class SensorTrace
+{
+    // "MNTR"
+    static final int MAGIC = 0x52544E4D;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 4 * 4 + 8;
+    // offset of the count of records ever written, in the header
+    static final int WRITTEN_OFFSET = 4 * 4;
+    // timestamp, type, three values
+    static final int RECORD_SIZE = 8 + 4 + 4 * 3;
+    // the type of a record marking a real step; no sensor has type 0
+    static final int STEP = 0;
+
+    final int count;
+    final long[] timestamps;
+    final int[] types;
+    // three per sample
+    final float[] values;
+
+    private SensorTrace(int capacity)
+    {
+        timestamps = new long[capacity];
+        types = new int[capacity];
+        values = new float[3 * capacity];
+        count = capacity;
+    }
+
+    /**
+     * Reads a binary or CSV trace, whichever the file holds.
+     */
+    static SensorTrace read(File file) throws IOException
+    {
+        DataInputStream in = new DataInputStream(new FileInputStream(file));
+        int magic;
+        try {
+            magic = file.length() >= 4 ? Integer.reverseBytes(in.readInt()) : 0;
+        } finally {
+            in.close();
+        }
+        return magic == MAGIC ? readBinary(file) : readCsv(file);
+    }
+
+    private static SensorTrace readBinary(File file) throws IOException
+    {
+        FileInputStream in = new FileInputStream(file);
+        try {
+            FileChannel channel = in.getChannel();
+            ByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            buf.order(ByteOrder.LITTLE_ENDIAN);
+
+            if(buf.getInt() != MAGIC || buf.getInt() != VERSION || buf.getInt() != RECORD_SIZE)
+                throw new IOException(file + " is not a trace this version can read");
+            int capacity = buf.getInt();
+            long written = buf.getLong();
+            if(capacity <= 0 || HEADER_SIZE + (long) capacity * RECORD_SIZE > buf.limit())
+                throw new IOException(file + " is truncated");
+
+            // oldest first; once full, the oldest is the one the next record would overwrite
+            int count = (int) Math.min(written, capacity);
+            int first = written > capacity ? (int) (written % capacity) : 0;
+            SensorTrace trace = new SensorTrace(count);
+            for(int i = 0; i < count; i++){
+                buf.position(HEADER_SIZE + ((first + i) % capacity) * RECORD_SIZE);
+                trace.timestamps[i] = buf.getLong();
+                trace.types[i] = buf.getInt();
+                trace.values[3 * i] = buf.getFloat();
+                trace.values[3 * i + 1] = buf.getFloat();
+                trace.values[3 * i + 2] = buf.getFloat();
+            }
+            return trace;
+        } finally {
+            in.close();
+        }
+    }
+
+    private static SensorTrace readCsv(File file) throws IOException
+    {
+        BufferedReader in = new BufferedReader(new FileReader(file));
+        try {
+            long[] timestamps = new long[1024];
+            int[] types = new int[1024];
+            float[] values = new float[3 * 1024];
+            int count = 0;
+
+            String line;
+            int lineNumber = 0;
+            while((line = in.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if(line.length() == 0 || line.startsWith("#"))
+                    continue;
+                String[] fields = line.split(",");
+                if(fields.length < 2)
+                    throw new IOException(file + ":" + lineNumber + ": expected timestamp,type,x,y,z");
+
+                if(count == types.length) {
+                    timestamps = grow(timestamps);
+                    types = grow(types);
+                    values = grow(values);
+                }
+                try {
+                    timestamps[count] = Long.parseLong(fields[0].trim());
+                    types[count] = Integer.parseInt(fields[1].trim());
+                    for(int k = 0; k < 3; k++)
+                        values[3 * count + k] = k + 2 < fields.length ? Float.parseFloat(fields[k + 2].trim()) : 0;
+                } catch (NumberFormatException e) {
+                    throw new IOException(file + ":" + lineNumber + ": " + e.getMessage());
+                }
+                count++;
+            }
+
+            SensorTrace trace = new SensorTrace(count);
+            System.arraycopy(timestamps, 0, trace.timestamps, 0, count);
+            System.arraycopy(types, 0, trace.types, 0, count);
+            System.arraycopy(values, 0, trace.values, 0, 3 * count);
+            return trace;
+        } finally {
+            in.close();
+        }
+    }
+
+    private static long[] grow(long[] a)
+    {
+        long[] grown = new long[2 * a.length];
+        System.arraycopy(a, 0, grown, 0, a.length);
+        return grown;
+    }
+
+    private static int[] grow(int[] a)
+    {
+        int[] grown = new int[2 * a.length];
+        System.arraycopy(a, 0, grown, 0, a.length);
+        return grown;
+    }
+
+    private static float[] grow(float[] a)
+    {
+        float[] grown = new float[2 * a.length];
+        System.arraycopy(a, 0, grown, 0, a.length);
+        return grown;
+    }
+
+    /**
+     * The number of records of the given type.
+     */
+    int count(int type)
+    {
+        int ret = 0;
+        for(int i = 0; i < count; i++){
+            if(types[i] == type)
+                ret++;
+        }
+        return ret;
+    }
+
+    /**
+     * How long the trace lasts, in nanoseconds.
+     */
+    long duration()
+    {
+        return count == 0 ? 0 : timestamps[count - 1] - timestamps[0];
+    }
+}
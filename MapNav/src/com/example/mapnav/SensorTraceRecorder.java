@@ -0,0 +1,113 @@
+/*
+ * Copyright MapNav contributors 2026
+ *
+ *
+    This file is part of Mapper.
+
+    Mapper is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Mapper is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with Mapper.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+
+package com.example.mapnav;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Records raw sensor samples to a binary trace, in the format SensorTrace reads, so that they can 
+ * be replayed off the device later (see StepTraceReplay).
+ *
+ * The file is created at its full size and memory mapped, and each sample is written straight into 
+ * its fixed-size record, so recording allocates nothing and costs a few stores per sample. 
+ * Once the file is full, recording wraps around and overwrites the oldest records. The count of 
+ * records written is updated in the header after each record, so a trace cut short by the app 
+ * being killed is still readable up to the last whole record.
+ * Not thread safe: record from one thread only, as MainActivity does from the sensor listener.
+ */
+class SensorTraceRecorder
+{
+    private final RandomAccessFile raf;
+    private final MappedByteBuffer buf;
+    private final int capacity;
+    private long written;
+
+    /**
+     * Creates a trace file, replacing any already there.
+     * @param file the file to record to
+     * @param capacity the number of samples to keep; older ones are overwritten once it is full
+     */
+    SensorTraceRecorder(File file, int capacity) throws IOException
+    {
+        if(capacity <= 0)
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        this.capacity = capacity;
+
+        raf = new RandomAccessFile(file, "rw");
+        try {
+            long size = SensorTrace.HEADER_SIZE + (long) capacity * SensorTrace.RECORD_SIZE;
+            raf.setLength(0);
+            raf.setLength(size);
+            buf = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+        } catch (IOException e) {
+            raf.close();
+            throw e;
+        }
+        buf.order(ByteOrder.LITTLE_ENDIAN);
+        buf.putInt(SensorTrace.MAGIC).putInt(SensorTrace.VERSION).putInt(SensorTrace.RECORD_SIZE).putInt(capacity);
+        buf.putLong(0);
+    }
+
+    /**
+     * Records one sample.
+     * @param type the Sensor.TYPE_ constant of the sensor
+     * @param timestamp the event's timestamp
+     * @param values the event's values; the first three are kept, and missing ones are 0
+     */
+    void record(int type, long timestamp, float[] values)
+    {
+        int at = SensorTrace.HEADER_SIZE + (int) (written % capacity) * SensorTrace.RECORD_SIZE;
+        buf.putLong(at, timestamp);
+        buf.putInt(at + 8, type);
+        buf.putFloat(at + 12, values.length > 0 ? values[0] : 0);
+        buf.putFloat(at + 16, values.length > 1 ? values[1] : 0);
+        buf.putFloat(at + 20, values.length > 2 ? values[2] : 0);
+        buf.putLong(SensorTrace.WRITTEN_OFFSET, ++written);
+    }
+
+    /**
+     * The number of samples recorded so far, including any since overwritten.
+     */
+    long getWritten()
+    {
+        return written;
+    }
+
+    /**
+     * Writes what has been recorded out to the file and closes it. Record nothing after this.
+     */
+    void close() throws IOException
+    {
+        try {
+            buf.force();
+        } finally {
+            raf.close();
+        }
+    }
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright MapNav contributors 2026
+ *
+ *
+    This file is part of Mapper.
+
+    Mapper is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Mapper is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with Mapper.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+
+package com.example.mapnav;
+
+/**
+ * Implement this interface to detect footsteps from the phone's motion.
+ * 
+ * Detectors take plain numbers rather than SensorEvents, so they can be run and compared 
+ * off the device, for instance by replaying a recorded trace with StepTraceReplay. 
+ * They are called from one thread only, and should not allocate per sample.
+ */
+public interface StepDetector 
+{
+    /**
+     * Called for every linear acceleration sample, with the latest gyroscope reading.
+     * @param timestamp The sample's timestamp, in nanoseconds.
+     * @param ax The linear acceleration along x, in m/s^2; ay and az likewise.
+     * @param gx The rotation rate around x, in rad/s; gy and gz likewise.
+     * @return true if this sample completes a step.
+     */
+    public boolean addSample(long timestamp, float ax, float ay, float az, float gx, float gy, float gz);
+    /**
+     * The filtered signal steps are detected in, as of the last sample; for graphing.
+     */
+    public float getSignal();
+    /**
+     * Forgets any step in progress and any filter state.
+     */
+    public void reset();
+}
@@ -0,0 +1,458 @@
+/*
+ * Copyright MapNav contributors 2026
+ *
+ *
+    This file is part of Mapper.
+
+    Mapper is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Mapper is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with Mapper.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+
+package com.example.mapnav;
+
+import java.security.InvalidParameterException;
+
+/**
+ * Reads SVG path data straight from the characters of the d attribute.
+ *
+ * Numbers are scanned in place rather than split out into strings, and the vertices of each
+ * subpath are gathered in a reused float buffer, so parsing a path allocates nothing.
+ * The whole path data grammar is accepted, including separators left out where they are not
+ * needed ("M10-5l.5.5"), repeated parameters after a command, H and V, and packed arc flags.
+ *
+ * Each subpath becomes one wall of the map. Curves and arcs are flattened into as few straight
+ * pieces as keep every piece within a tolerance of the curve, measured in meters after the
+ * file's scale is applied, so gentle or short curves cost one or two segments and tight ones more.
+ *
+ * Not thread safe; use one parser per thread.
+ */
+class SvgPathParser
+{
+    // powers of ten that can be represented exactly as doubles
+    private static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    // no curve is split into more pieces than this, however small the tolerance
+    private static final int MAX_PIECES = 1024;
+
+    // how far (in meters) a flattened curve may stray from the real one
+    private final float tolerance;
+
+    private CharSequence d;
+    private int pos, length;
+    private float scaleX, scaleY;
+
+    // the vertices of the current subpath, already scaled
+    private float[] vertices = new float[64];
+    private int vertexCount;
+
+    /**
+     * @param tolerance how far (in meters) the straight pieces a curve is replaced by may stray from it
+     */
+    SvgPathParser(float tolerance)
+    {
+        this.tolerance = tolerance;
+    }
+
+    /**
+     * Parses path data and adds each of its subpaths to a map.
+     * @param d the path data
+     * @param scaleX multiplies every x coordinate
+     * @param scaleY multiplies every y coordinate
+     * @param map the map to add the walls to
+     */
+    void parse(CharSequence d, float scaleX, float scaleY, NavigationalMap map)
+    {
+        this.d = d;
+        this.scaleX = scaleX;
+        this.scaleY = scaleY;
+        pos = 0;
+        length = d.length();
+        vertexCount = 0;
+
+        // current point, and the start of the current subpath, in file units
+        float x = 0, y = 0, startX = 0, startY = 0;
+        // the last control point of the previous curve, reflected by S and T
+        float controlX = 0, controlY = 0;
+        char command = 0, previous = 0;
+
+        try {
+            skipSeparators();
+            while(pos < length) {
+                char c = d.charAt(pos);
+                if(isCommand(c)) {
+                    command = c;
+                    pos++;
+                } else if(command == 0 || !isNumberStart(c)) {
+                    throw new InvalidParameterException("A character that was to be interpreted as a command character " +
+                            "is not known by the Map loader. Check your path Data. The unknown character was: <" + c + ">" +
+                            "in the path {" + d + "}");
+                } else if(command == 'Z' || command == 'z') {
+                    throw new InvalidParameterException("Close path takes no parameters. The path being processed was {" + d + "}");
+                }
+
+                boolean relative = Character.isLowerCase(command);
+                float baseX = relative ? x : 0, baseY = relative ? y : 0;
+                switch(command) {
+                case 'M':
+                case 'm':
+                    flush(map);
+                    x = baseX + nextNumber();
+                    y = baseY + nextNumber();
+                    startX = x;
+                    startY = y;
+                    addVertex(x * scaleX, y * scaleY);
+                    // further coordinate pairs are implicit line commands
+                    command = relative ? 'l' : 'L';
+                    break;
+                case 'L':
+                case 'l':
+                    x = baseX + nextNumber();
+                    y = baseY + nextNumber();
+                    addVertex(x * scaleX, y * scaleY);
+                    break;
+                case 'H':
+                case 'h':
+                    x = baseX + nextNumber();
+                    addVertex(x * scaleX, y * scaleY);
+                    break;
+                case 'V':
+                case 'v':
+                    y = baseY + nextNumber();
+                    addVertex(x * scaleX, y * scaleY);
+                    break;
+                case 'C':
+                case 'c':
+                case 'S':
+                case 's': {
+                    float x1, y1;
+                    if(command == 'C' || command == 'c') {
+                        x1 = baseX + nextNumber();
+                        y1 = baseY + nextNumber();
+                    } else if("CcSs".indexOf(previous) != -1) {
+                        x1 = 2 * x - controlX;
+                        y1 = 2 * y - controlY;
+                    } else {
+                        x1 = x;
+                        y1 = y;
+                    }
+                    controlX = baseX + nextNumber();
+                    controlY = baseY + nextNumber();
+                    float x3 = baseX + nextNumber(), y3 = baseY + nextNumber();
+                    addCubic(x, y, x1, y1, controlX, controlY, x3, y3);
+                    x = x3;
+                    y = y3;
+                    break;
+                }
+                case 'Q':
+                case 'q':
+                case 'T':
+                case 't': {
+                    if(command == 'Q' || command == 'q') {
+                        controlX = baseX + nextNumber();
+                        controlY = baseY + nextNumber();
+                    } else if("QqTt".indexOf(previous) != -1) {
+                        controlX = 2 * x - controlX;
+                        controlY = 2 * y - controlY;
+                    } else {
+                        controlX = x;
+                        controlY = y;
+                    }
+                    float x2 = baseX + nextNumber(), y2 = baseY + nextNumber();
+                    addQuadratic(x, y, controlX, controlY, x2, y2);
+                    x = x2;
+                    y = y2;
+                    break;
+                }
+                case 'A':
+                case 'a': {
+                    float rx = nextNumber(), ry = nextNumber(), rotation = nextNumber();
+                    // the two flags need no separators between them
+                    boolean largeArc = nextFlag();
+                    boolean sweep = nextFlag();
+                    float x2 = baseX + nextNumber(), y2 = baseY + nextNumber();
+                    addArc(x, y, rx, ry, rotation, largeArc, sweep, x2, y2);
+                    x = x2;
+                    y = y2;
+                    break;
+                }
+                case 'Z':
+                case 'z':
+                    x = startX;
+                    y = startY;
+                    addVertex(x * scaleX, y * scaleY);
+                    break;
+                }
+                previous = command;
+                skipSeparators();
+            }
+        } catch (IndexOutOfBoundsException e) {
+            throw new IndexOutOfBoundsException("There were not enough elements to process all the commands. "+
+                    "Either the path contains an unknown command or one of the commands has too few parameters. " +
+                    "The path being processed was {" + d +"}");
+        }
+        flush(map);
+        this.d = null;
+    }
+
+    /** Adds the current subpath to the map, if it has any walls, and starts a new one. */
+    private void flush(NavigationalMap map)
+    {
+        if(vertexCount > 1)
+            map.addPath(vertices, 0, vertexCount);
+        vertexCount = 0;
+    }
+
+    private void addVertex(float x, float y)
+    {
+        if(2 * vertexCount + 2 > vertices.length) {
+            float[] grown = new float[2 * vertices.length];
+            System.arraycopy(vertices, 0, grown, 0, 2 * vertexCount);
+            vertices = grown;
+        }
+        vertices[2 * vertexCount] = x;
+        vertices[2 * vertexCount + 1] = y;
+        vertexCount++;
+    }
+
+    /**
+     * Adds the points a cubic Bezier is flattened to, after its start point. Arguments are in file units.
+     * 
+     * The curve is split evenly in t, into as many pieces as Wang's formula says keep every piece 
+     * within the tolerance; that count follows from how far the control polygon bends.
+     */
+    private void addCubic(float x0, float y0, float x1, float y1, float x2, float y2, float x3, float y3)
+    {
+        float bend = Math.max(
+                (float) Math.hypot((x0 - 2 * x1 + x2) * scaleX, (y0 - 2 * y1 + y2) * scaleY),
+                (float) Math.hypot((x1 - 2 * x2 + x3) * scaleX, (y1 - 2 * y2 + y3) * scaleY));
+        int pieces = pieces(Math.sqrt(0.75 * bend / tolerance));
+        for(int i = 1; i < pieces; i++){
+            float t = (float) i / pieces, u = 1 - t;
+            float a = u * u * u, b = 3 * u * u * t, c = 3 * u * t * t, e = t * t * t;
+            addVertex((a * x0 + b * x1 + c * x2 + e * x3) * scaleX, (a * y0 + b * y1 + c * y2 + e * y3) * scaleY);
+        }
+        addVertex(x3 * scaleX, y3 * scaleY);
+    }
+
+    /**
+     * Adds the points a quadratic Bezier is flattened to, after its start point. Arguments are in file units.
+     */
+    private void addQuadratic(float x0, float y0, float x1, float y1, float x2, float y2)
+    {
+        float bend = (float) Math.hypot((x0 - 2 * x1 + x2) * scaleX, (y0 - 2 * y1 + y2) * scaleY);
+        int pieces = pieces(Math.sqrt(0.25 * bend / tolerance));
+        for(int i = 1; i < pieces; i++){
+            float t = (float) i / pieces, u = 1 - t;
+            float a = u * u, b = 2 * u * t, c = t * t;
+            addVertex((a * x0 + b * x1 + c * x2) * scaleX, (a * y0 + b * y1 + c * y2) * scaleY);
+        }
+        addVertex(x2 * scaleX, y2 * scaleY);
+    }
+
+    /**
+     * Adds the points an elliptical arc is flattened to, after its start point. Arguments are in file units,
+     * as the A command gives them; the rotation is in degrees.
+     * 
+     * The arc is converted to its center and angles as the SVG specification describes, and split into 
+     * equal angles small enough that no piece strays further than the tolerance from a circle 
+     * of the larger radius.
+     */
+    private void addArc(float x1, float y1, float rx, float ry, float rotation,
+            boolean largeArc, boolean sweep, float x2, float y2)
+    {
+        if(x1 == x2 && y1 == y2)
+            return;
+        rx = Math.abs(rx);
+        ry = Math.abs(ry);
+        if(rx == 0 || ry == 0) {
+            addVertex(x2 * scaleX, y2 * scaleY);
+            return;
+        }
+
+        double phi = Math.toRadians(rotation);
+        double cos = Math.cos(phi), sin = Math.sin(phi);
+        double hx = (x1 - x2) / 2.0, hy = (y1 - y2) / 2.0;
+        double px = cos * hx + sin * hy, py = -sin * hx + cos * hy;
+
+        // radii too small to reach the end point are scaled up until they just do
+        double lambda = px * px / ((double) rx * rx) + py * py / ((double) ry * ry);
+        double a = rx, b = ry;
+        if(lambda > 1) {
+            a *= Math.sqrt(lambda);
+            b *= Math.sqrt(lambda);
+        }
+
+        double num = a * a * b * b - a * a * py * py - b * b * px * px;
+        double den = a * a * py * py + b * b * px * px;
+        double coef = Math.sqrt(Math.max(0, num / den)) * (largeArc == sweep ? -1 : 1);
+        double qx = coef * a * py / b, qy = -coef * b * px / a;
+        double cx = cos * qx - sin * qy + (x1 + x2) / 2.0, cy = sin * qx + cos * qy + (y1 + y2) / 2.0;
+
+        double start = Math.atan2((py - qy) / b, (px - qx) / a);
+        double sweepAngle = Math.atan2((-py - qy) / b, (-px - qx) / a) - start;
+        if(sweep && sweepAngle < 0)
+            sweepAngle += 2 * Math.PI;
+        else if(!sweep && sweepAngle > 0)
+            sweepAngle -= 2 * Math.PI;
+
+        // the chord of angle s strays r(1 - cos(s/2)) from a circle of radius r
+        double radius = Math.max(a, b) * Math.max(Math.abs(scaleX), Math.abs(scaleY));
+        double step = tolerance >= radius ? Math.PI : 2 * Math.acos(1 - tolerance / radius);
+        int pieces = pieces(Math.abs(sweepAngle) / step);
+        for(int i = 1; i < pieces; i++){
+            double theta = start + sweepAngle * i / pieces;
+            double ex = a * Math.cos(theta), ey = b * Math.sin(theta);
+            addVertex((float) (cx + cos * ex - sin * ey) * scaleX, (float) (cy + sin * ex + cos * ey) * scaleY);
+        }
+        addVertex(x2 * scaleX, y2 * scaleY);
+    }
+
+    /** Rounds a number of pieces up, to at least one and at most MAX_PIECES. */
+    private static int pieces(double count)
+    {
+        if(!(count > 1))
+            return 1;
+        return (int) Math.min(MAX_PIECES, Math.ceil(count));
+    }
+
+    private static boolean isCommand(char c)
+    {
+        return "MmLlHhVvCcSsQqTtAaZz".indexOf(c) != -1;
+    }
+
+    private static boolean isNumberStart(char c)
+    {
+        return c >= '0' && c <= '9' || c == '-' || c == '+' || c == '.';
+    }
+
+    private static boolean isSeparator(char c)
+    {
+        return c == ' ' || c == ',' || c == '\t' || c == '\n' || c == '\r' || c == '\f';
+    }
+
+    private void skipSeparators()
+    {
+        while(pos < length && isSeparator(d.charAt(pos)))
+            pos++;
+    }
+
+    /** Reads an arc flag: a single 0 or 1. */
+    private boolean nextFlag()
+    {
+        skipSeparators();
+        char c = d.charAt(pos);
+        if(c != '0' && c != '1')
+            throw numberFormatException();
+        pos++;
+        return c == '1';
+    }
+
+    /**
+     * Reads the next number, skipping the separators before it.
+     * The result is the same as Float.parseFloat gives for the number's characters.
+     */
+    private float nextNumber()
+    {
+        skipSeparators();
+        if(pos >= length)
+            throw new IndexOutOfBoundsException();
+        int start = pos;
+
+        boolean negative = false;
+        char c = d.charAt(pos);
+        if(c == '-' || c == '+') {
+            negative = c == '-';
+            pos++;
+        }
+
+        // up to 18 significant digits fit in a long; count the rest towards the exponent
+        long mantissa = 0;
+        int digits = 0, exponent = 0;
+        boolean anyDigits = false;
+        while(pos < length && (c = d.charAt(pos)) >= '0' && c <= '9') {
+            anyDigits = true;
+            if(digits < 18) {
+                mantissa = 10 * mantissa + (c - '0');
+                if(mantissa != 0)
+                    digits++;
+            } else {
+                exponent++;
+            }
+            pos++;
+        }
+        if(pos < length && d.charAt(pos) == '.') {
+            pos++;
+            while(pos < length && (c = d.charAt(pos)) >= '0' && c <= '9') {
+                anyDigits = true;
+                if(digits < 18) {
+                    mantissa = 10 * mantissa + (c - '0');
+                    if(mantissa != 0)
+                        digits++;
+                    exponent--;
+                }
+                pos++;
+            }
+        }
+        if(!anyDigits)
+            throw numberFormatException();
+
+        // an exponent only counts if digits follow it; otherwise the e is left for the next token
+        if(pos < length && ((c = d.charAt(pos)) == 'e' || c == 'E')) {
+            int mark = pos++;
+            boolean negativeExponent = false;
+            if(pos < length && ((c = d.charAt(pos)) == '-' || c == '+')) {
+                negativeExponent = c == '-';
+                pos++;
+            }
+            if(pos < length && (c = d.charAt(pos)) >= '0' && c <= '9') {
+                int e = 0;
+                while(pos < length && (c = d.charAt(pos)) >= '0' && c <= '9') {
+                    if(e < 10000)
+                        e = 10 * e + (c - '0');
+                    pos++;
+                }
+                exponent += negativeExponent ? -e : e;
+            } else {
+                pos = mark;
+            }
+        }
+
+        float ret;
+        if(mantissa == 0) {
+            ret = 0;
+        } else if(digits <= 15 && Math.abs(exponent) < POWERS_OF_TEN.length) {
+            // Both the mantissa and the power of ten are exact doubles, so one multiplication or
+            // division rounds correctly, and a double has enough precision left to round to a float.
+            double value = exponent < 0 ? mantissa / POWERS_OF_TEN[-exponent] : mantissa * POWERS_OF_TEN[exponent];
+            ret = (float) value;
+        } else {
+            // rare; not worth doing exactly here
+            ret = Float.parseFloat(d.subSequence(start, pos).toString());
+            return ret;
+        }
+        return negative ? -ret : ret;
+    }
+
+    private NumberFormatException numberFormatException()
+    {
+        return new NumberFormatException("The map loader encountered a problem parsing path data. This likely means that you have an " +
+                "unknown control character. Check your paths. " +
+                "The path being processed was {" + d +"}");
+    }
+}
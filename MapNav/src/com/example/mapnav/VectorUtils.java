@@ -22,6 +22,8 @@
 
 package com.example.mapnav;
 
+import java.util.List;
+
 import android.graphics.PointF;
 
 /**
@@ -107,7 +109,24 @@ public class VectorUtils {
     
     public static float distance(PointF start, PointF end)
     {
-        return (float)java.lang.Math.sqrt((float) (Math.pow(end.x - start.x, 2) +  Math.pow(end.y - start.y, 2)));
+        return distance(start.x, start.y, end.x, end.y);
+    }
+    
+    public static float distance(float startX, float startY, float endX, float endY)
+    {
+        return (float)java.lang.Math.sqrt((float) (Math.pow(endX - startX, 2) +  Math.pow(endY - startY, 2)));
+    }
+    
+    /**
+     * The length of a path: the sum of the distances between consecutive points.
+     */
+    public static float pathLength(List<PointF> path)
+    {
+        float ret = 0;
+        for(int i = 0; i + 1 < path.size(); i++){
+            ret += distance(path.get(i), path.get(i + 1));
+        }
+        return ret;
     }
     
     public static boolean areEqual(PointF p1, PointF p2){
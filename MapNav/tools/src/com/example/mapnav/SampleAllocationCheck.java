@@ -0,0 +1,172 @@
+/*
+ * Copyright MapNav contributors 2026
+ *
+ *
+    This file is part of Mapper.
+
+    Mapper is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Mapper is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with Mapper.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+
+package com.example.mapnav;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import android.graphics.PointF;
+import android.hardware.Sensor;
+
+/**
+ * Checks that NavigationProcessor handles sensor samples without allocating, once warmed up.
+ *
+ * Runs a processor on a small map of three rooms, feeds its navigation thread samples from a 
+ * phone standing still, with the heading jittering within one compass sector, and counts the 
+ * bytes the thread allocates while it processes them. Exits with status 1 if it allocated any, 
+ * and 2 if the check could not be made: allocations can only be counted on a JVM whose 
+ * ThreadMXBean reports them, such as HotSpot, and only if no sample was dropped.
+ *
+ * Snapshots are delivered straight from the navigation thread, so no Looper is needed. This is a 
+ * tool for a desktop JVM, kept out of the app: build it against the app's classes with an 
+ * implementation of the Android classes it uses (PointF) on the classpath, such as Robolectric's 
+ * android-all jar.
+ *
+ * Usage: SampleAllocationCheck [samples]
+ */
+public class SampleAllocationCheck
+{
+    private static final int WARM_UP = 50000;
+    // samples offered between pauses, well under the processor's queue, so that none are dropped
+    private static final int BATCH = 100;
+
+    private static volatile NavigationSnapshot latest;
+
+    // prevent construction; static methods only.
+    private SampleAllocationCheck() {}
+
+    public static void main(String[] args) throws Exception
+    {
+        int samples = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+
+        Object threads;
+        Method allocatedBytes;
+        try {
+            threads = Class.forName("java.lang.management.ManagementFactory").getMethod("getThreadMXBean").invoke(null);
+            allocatedBytes = Class.forName("com.sun.management.ThreadMXBean").getMethod("getThreadAllocatedBytes", long.class);
+        } catch (Exception e) {
+            System.out.println("This VM can not count allocations per thread: " + e);
+            System.exit(2);
+            return;
+        }
+
+        NavigationProcessor processor = new NavigationProcessor(NavigationProcessor.ROUTE_INCREMENTAL, 0,
+                new NavigationProcessor.Listener() {
+                    public void navigationUpdated(NavigationSnapshot snapshot) {
+                        latest = snapshot;
+                    }
+                }, null, new PeakTroughStepDetector(), new Executor() {
+                    public void execute(Runnable command) {
+                        command.run();
+                    }
+                });
+        processor.start();
+        processor.setMap(buildMap());
+        processor.setOrigin(new PointF(3, 5));
+        processor.setDestination(new PointF(17, 5));
+
+        // the map is ready once the first snapshot arrives
+        for(int wait = 0; latest == null && wait < 100; wait++)
+            feed(processor, 1);
+        Thread navigation = findThread("Navigation");
+        if(navigation == null || latest == null) {
+            System.out.println("The navigation thread did not start or publish anything");
+            System.exit(2);
+            return;
+        }
+        feed(processor, WARM_UP);
+
+        long before = (Long) allocatedBytes.invoke(threads, navigation.getId());
+        int dropped = feed(processor, samples);
+        long allocated = (Long) allocatedBytes.invoke(threads, navigation.getId()) - before;
+        processor.stop();
+
+        System.out.println(samples + " samples after " + WARM_UP + " to warm up: " + allocated + " bytes allocated, " 
+                + dropped + " dropped");
+        System.out.println(latest.getGuidance());
+        if(dropped > 0)
+            System.exit(2);
+        System.exit(allocated == 0 ? 0 : 1);
+    }
+
+    /**
+     * Three rooms side by side, joined by doorways.
+     */
+    private static NavigationalMap buildMap()
+    {
+        NavigationalMap map = new NavigationalMap();
+        map.addPath(points(0, 0, 20, 0, 20, 10, 0, 10, 0, 0));
+        map.addPath(points(7, 0, 7, 8));
+        map.addPath(points(14, 2, 14, 10));
+        return map;
+    }
+
+    private static List<PointF> points(float... coords)
+    {
+        List<PointF> ret = new ArrayList<PointF>();
+        for(int i = 0; i < coords.length; i += 2)
+            ret.add(new PointF(coords[i], coords[i + 1]));
+        return ret;
+    }
+
+    /**
+     * Feeds a phone standing still: gravity-free acceleration near 0, no rotation, and a heading 
+     * wobbling by under a degree. Pauses after every batch so the navigation thread keeps up.
+     * @return the number of samples the processor dropped
+     */
+    private static int feed(NavigationProcessor processor, int samples) throws InterruptedException
+    {
+        float[] acceleration = {0, 0, 1}, rotation = {0, 0, 0}, heading = {80, 0, 0};
+        int dropped = 0;
+        long time = 0;
+        for(int i = 0; i < samples; i++){
+            time += 5000000;
+            if(i % 10 == 0) {
+                heading[0] = 80 + (i / 10 % 7) * 0.1f;
+                if(!processor.offer(Sensor.TYPE_ORIENTATION, time, heading))
+                    dropped++;
+                if(!processor.offer(Sensor.TYPE_GYROSCOPE, time, rotation))
+                    dropped++;
+            }
+            if(!processor.offer(Sensor.TYPE_LINEAR_ACCELERATION, time, acceleration))
+                dropped++;
+            if(i % BATCH == BATCH - 1)
+                Thread.sleep(1);
+        }
+        // let the navigation thread finish the last batch
+        Thread.sleep(100);
+        return dropped;
+    }
+
+    private static Thread findThread(String name)
+    {
+        for(Thread t : Thread.getAllStackTraces().keySet()){
+            if(t.getName().equals(name))
+                return t;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright MapNav contributors 2026
+ *
+ *
+    This file is part of Mapper.
+
+    Mapper is free software: you can redistribute it and/or modify
+    it under the terms of the GNU Lesser General Public License as published by
+    the Free Software Foundation, either version 3 of the License, or
+    (at your option) any later version.
+
+    Mapper is distributed in the hope that it will be useful,
+    but WITHOUT ANY WARRANTY; without even the implied warranty of
+    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+    GNU Lesser General Public License for more details.
+
+    You should have received a copy of the GNU Lesser General Public License
+    along with Mapper.  If not, see <http://www.gnu.org/licenses/>.
+ *
+ *
+ */
+
+
+package com.example.mapnav;
+
+import java.io.File;
+import java.io.IOException;
+
+import android.hardware.Sensor;
+
+/**
+ * Replays recorded sensor traces through a StepDetector as fast as it will go, off the device, 
+ * and reports how fast and how well it found the steps.
+ *
+ * Usage: StepTraceReplay [-detector class] [-repeat n] [-steps n] trace...
+ * <ul>
+ * <li>-detector: the StepDetector to run, by class name; PeakTroughStepDetector by default.</li>
+ * <li>-repeat: how many times each trace is replayed for timing, after one untimed run; 20 by default.</li>
+ * <li>-steps: how many steps were really taken, for traces without STEP records.</li>
+ * </ul>
+ * Traces are read with SensorTrace, so they may be binary, as SensorTraceRecorder writes them, or CSV. 
+ * Only the linear acceleration and gyroscope records are used, as on the device. Nothing but 
+ * java.* and constants from android.* is used, so this runs on any JVM with the app's classes. 
+ * Like the other tools it lives outside src/, so it is not packaged into the app.
+ */
+public class StepTraceReplay
+{
+    // a detected step counts as a real one if it is this close to it, in nanoseconds
+    private static final long MATCH_WINDOW = 500 * 1000000L;
+
+    // prevent construction; static methods only.
+    private StepTraceReplay() {}
+
+    public static void main(String[] args) throws Exception
+    {
+        String detectorClass = PeakTroughStepDetector.class.getName();
+        int repeat = 20, expectedSteps = -1;
+        int i = 0;
+        for(; i < args.length && args[i].startsWith("-"); i += 2){
+            if(i + 1 == args.length) {
+                usage();
+                return;
+            }
+            if(args[i].equals("-detector"))
+                detectorClass = args[i + 1];
+            else if(args[i].equals("-repeat"))
+                repeat = Math.max(1, Integer.parseInt(args[i + 1]));
+            else if(args[i].equals("-steps"))
+                expectedSteps = Integer.parseInt(args[i + 1]);
+            else {
+                usage();
+                return;
+            }
+        }
+        if(i == args.length) {
+            usage();
+            return;
+        }
+
+        StepDetector detector = (StepDetector) Class.forName(detectorClass).newInstance();
+        System.out.println("Detector: " + detectorClass);
+        for(; i < args.length; i++){
+            try {
+                report(new File(args[i]), SensorTrace.read(new File(args[i])), detector, repeat, expectedSteps);
+            } catch (IOException e) {
+                System.out.println(args[i] + ": " + e.getMessage());
+            }
+        }
+    }
+
+    private static void usage()
+    {
+        System.err.println("Usage: StepTraceReplay [-detector class] [-repeat n] [-steps n] trace...");
+    }
+
+    private static void report(File file, SensorTrace trace, StepDetector detector, int repeat, int expectedSteps)
+    {
+        int samples = trace.count(Sensor.TYPE_LINEAR_ACCELERATION);
+        long[] steps = new long[samples];
+
+        // the untimed run, which also warms the detector up
+        detector.reset();
+        int detected = replay(trace, detector, steps);
+
+        long start = System.nanoTime();
+        for(int r = 0; r < repeat; r++){
+            detector.reset();
+            replay(trace, detector, null);
+        }
+        long elapsed = Math.max(1, System.nanoTime() - start);
+
+        System.out.println(file + ":");
+        System.out.printf("  %d records, %d acceleration samples, %.1f s%n", trace.count, samples, trace.duration() / 1e9);
+        System.out.printf("  %.0f samples/s, %.0f ns per sample, %.0fx real time%n",
+                (double) samples * repeat * 1e9 / elapsed, (double) elapsed / ((double) samples * repeat),
+                (double) trace.duration() * repeat / elapsed);
+
+        int marked = trace.count(SensorTrace.STEP);
+        if(marked > 0) {
+            int matched = match(trace, steps, detected);
+            System.out.printf("  %d steps detected, %d real: %d found, %d missed, %d extra%n",
+                    detected, marked, matched, marked - matched, detected - matched);
+        } else if(expectedSteps >= 0) {
+            System.out.printf("  %d steps detected, %d real: %+.1f%%%n",
+                    detected, expectedSteps, expectedSteps == 0 ? 0.0 : 100.0 * (detected - expectedSteps) / expectedSteps);
+        } else {
+            System.out.printf("  %d steps detected%n", detected);
+        }
+    }
+
+    /**
+     * Feeds every acceleration sample of a trace to a detector, with the latest gyroscope reading.
+     * @param steps filled with the timestamps of the steps found, if not null
+     * @return the number of steps found
+     */
+    static int replay(SensorTrace trace, StepDetector detector, long[] steps)
+    {
+        int detected = 0;
+        float gx = 0, gy = 0, gz = 0;
+        long[] timestamps = trace.timestamps;
+        int[] types = trace.types;
+        float[] values = trace.values;
+        for(int i = 0; i < trace.count; i++){
+            if(types[i] == Sensor.TYPE_GYROSCOPE) {
+                gx = values[3 * i];
+                gy = values[3 * i + 1];
+                gz = values[3 * i + 2];
+            } else if(types[i] == Sensor.TYPE_LINEAR_ACCELERATION) {
+                if(detector.addSample(timestamps[i], values[3 * i], values[3 * i + 1], values[3 * i + 2], gx, gy, gz)) {
+                    if(steps != null)
+                        steps[detected] = timestamps[i];
+                    detected++;
+                }
+            }
+        }
+        return detected;
+    }
+
+    /**
+     * Pairs detected steps with the trace's STEP records, each with the earliest unpaired one 
+     * within MATCH_WINDOW of it.
+     * @return the number of pairs
+     */
+    private static int match(SensorTrace trace, long[] steps, int detected)
+    {
+        boolean[] used = new boolean[trace.count];
+        int matched = 0;
+        for(int s = 0; s < detected; s++){
+            for(int i = 0; i < trace.count; i++){
+                if(trace.types[i] == SensorTrace.STEP && !used[i] && Math.abs(trace.timestamps[i] - steps[s]) <= MATCH_WINDOW) {
+                    used[i] = true;
+                    matched++;
+                    break;
+                }
+            }
+        }
+        return matched;
+    }
+}